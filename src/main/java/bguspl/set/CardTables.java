@@ -0,0 +1,127 @@
+package bguspl.set;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup tables derived from the cards of a deck. The tables depend only on the rules, config.featureSize,
+ * config.featureCount and config.deckSize, so they are built once per deck and shared by all the games (and threads)
+ * in the JVM.
+ */
+final class CardTables {
+
+    /**
+     * The maximal size (in bytes) of each lookup table. Larger decks leave the table null and compute its
+     * entries with arithmetic instead (e.g. the third card table is built for decks of up to 2048 cards).
+     */
+    static final long MAX_TABLE_BYTES = 16L << 20;
+
+    private static final Map<List<Object>, CardTables> cache = new ConcurrentHashMap<>();
+
+    final int featureSize;
+    final int featureCount;
+    final int deckSize;
+
+    /**
+     * The features of every card: features[card * featureCount + i] is feature i of the card (null if too large).
+     */
+    final int[] features;
+
+    /**
+     * The packed representation of every card (null if the features do not fit in a long).
+     * Each feature takes a lane of featureSize bits holding a single set bit (one-hot) for its value.
+     */
+    final long[] packed;
+
+    /**
+     * The top bit of every feature lane, and all the remaining bits of the lanes.
+     */
+    final long laneHigh;
+    final long laneLow;
+
+    /**
+     * The card that completes a set with two cards: thirdCards[first * deckSize + second]
+     * (null if featureSize != 3 or too large).
+     */
+    final int[] thirdCards;
+
+    /**
+     * Returns the tables of the deck described by the configuration, building them on first use.
+     *
+     * @param config - the game configuration.
+     * @return - the shared tables for the deck.
+     */
+    static CardTables of(Config config) {
+        // e.g. the projective rules and the classic rules with featureSize 2 have decks of different sizes
+        List<Object> key = Arrays.asList(config.rules, config.featureSize, config.featureCount, config.deckSize);
+        return cache.computeIfAbsent(key, k -> new CardTables(config.featureSize, config.featureCount, config.deckSize));
+    }
+
+    private CardTables(int featureSize, int featureCount, int deckSize) {
+        this.featureSize = featureSize;
+        this.featureCount = featureCount;
+        this.deckSize = deckSize;
+
+        features = fits(deckSize, featureCount, Integer.BYTES) ? new int[deckSize * featureCount] : null;
+        if (features != null)
+            for (int card = 0; card < deckSize; ++card)
+                featuresByArithmetic(card, features, card * featureCount);
+
+        if (featureCount * featureSize <= Long.SIZE && fits(deckSize, 1, Long.BYTES)) {
+            long high = 0;
+            for (int i = 0; i < featureCount; ++i)
+                high |= 1L << (i * featureSize + featureSize - 1);
+            long used = featureCount * featureSize == Long.SIZE ? -1L : (1L << featureCount * featureSize) - 1;
+            laneHigh = high;
+            laneLow = used & ~high;
+
+            packed = new long[deckSize];
+            int[] cardFeatures = new int[featureCount];
+            for (int card = 0; card < deckSize; ++card) {
+                featuresByArithmetic(card, cardFeatures, 0);
+                for (int i = 0; i < featureCount; ++i)
+                    packed[card] |= 1L << (i * featureSize + cardFeatures[i]);
+            }
+        } else {
+            laneHigh = laneLow = 0;
+            packed = null;
+        }
+
+        thirdCards = featureSize == 3 && fits(deckSize, deckSize, Integer.BYTES) ? new int[deckSize * deckSize] : null;
+        if (thirdCards != null)
+            for (int first = 0; first < deckSize; ++first)
+                for (int second = 0; second < deckSize; ++second)
+                    thirdCards[first * deckSize + second] = thirdCardByArithmetic(first, second);
+    }
+
+    private static boolean fits(long rows, long columns, int bytes) {
+        return rows * columns * bytes <= MAX_TABLE_BYTES;
+    }
+
+    /**
+     * Writes the features of a card into an array, starting at a given offset.
+     */
+    void featuresByArithmetic(int card, int[] features, int offset) {
+        for (int i = featureCount - 1; i >= 0; --i) {
+            features[offset + i] = card % featureSize;
+            card /= featureSize;
+        }
+    }
+
+    /**
+     * Computes the only card that completes a set with two given cards (for featureSize == 3).
+     * In every feature the third value is the same as the other two if they are equal, and the missing one otherwise.
+     */
+    int thirdCardByArithmetic(int first, int second) {
+        int third = 0;
+        for (int i = 0, weight = 1; i < featureCount; ++i, weight *= featureSize) {
+            int a = first % featureSize, b = second % featureSize;
+            third += weight * (a == b ? a : 3 - a - b);
+            first /= featureSize;
+            second /= featureSize;
+        }
+        return third;
+    }
+}
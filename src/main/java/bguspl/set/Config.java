@@ -7,6 +7,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +22,17 @@ public class Config {
     public final long randomSpinMin;
     public final long randomSpinMax;
 
+    /**
+     * The rules of the game: "classic" (sets of featureSize cards whose features are all the same or all different)
+     * or "projective" (any cards whose featureCount-bit vectors xor to zero)
+     */
+    public final String rules;
+
+    /**
+     * True iff the game is played with the projective rules
+     */
+    public final boolean projective;
+
     /**
      * The number of features on the cards (e.g. shape, color etc.)
      */
@@ -32,10 +44,42 @@ public class Config {
     public final int featureSize;
 
     /**
-     * The total number of cards in the deck (i.e. featureSize ^ featureCount)
+     * The total number of cards in the deck (i.e. featureSize ^ featureCount, or 2 ^ featureCount - 1 for projective)
      */
     public final int deckSize;
 
+    /**
+     * The number of tokens a player places to claim a set (always featureSize with the classic rules). With the
+     * projective rules, only the sets of this many cards count as sets on the table and in the deck, or the players
+     * claim sets of any size with their submit keys if it is 0
+     */
+    public final int claimSize;
+
+    /**
+     * The maximal number of tokens a player places at a time (claimSize, or maxTableSize with claims of any size)
+     */
+    public final int maxClaimSize;
+
+    /**
+     * The minimal number of cards for which sets are searched for in parallel (0 or less to always search sequentially)
+     */
+    public final int parallelThreshold;
+
+    /**
+     * The engine used to test and find sets with the classic rules: reference, fast or parallel
+     */
+    public final String utilEngine;
+
+    /**
+     * The engine that cross-checks a sample of the calls to the util engine (empty for none)
+     */
+    public final String shadowEngine;
+
+    /**
+     * The fraction (between 0 and 1) of the calls to the util engine that are cross-checked by the shadow engine
+     */
+    public final double shadowSampleRate;
+
     /**
      * The number of human players in the game.
      */
@@ -56,6 +100,11 @@ public class Config {
      */
     public final boolean hints;
 
+    /**
+     * The seed of the random shuffles of the deck (the same seed deals the same cards, for replaying a game)
+     */
+    public final long deckSeed;
+
     /**
      * The number of milliseconds until the dealer reshuffles the deck (0 show timer since last action, -1 show nothing)
      */
@@ -66,6 +115,18 @@ public class Config {
      */
     public final long turnTimeoutWarningMillis;
 
+    /**
+     * The number of milliseconds between updates of the countdown display, before and during the warning
+     */
+    public final long countdownTickMillis;
+    public final long countdownWarningTickMillis;
+
+    /**
+     * The number of milliseconds until the dealer reshuffles the deck when there is no set on the table (-1 wait for
+     * the turn timeout)
+     */
+    public final long noSetGraceMillis;
+
     /**
      * The number of milliseconds a player gets frozen for when he scores a point
      */
@@ -77,7 +138,7 @@ public class Config {
     public final long pointFreezeMillis;
 
     /**
-     * The number of milliseconds to delay before removing/placing a card on the table
+     * The number of milliseconds between showing the cards removed from/placed on the table (presentational only)
      */
     public final long tableDelayMillis;
 
@@ -107,6 +168,13 @@ public class Config {
      */
     public final int tableSize;
 
+    /**
+     * The maximal number of cards on the table, when the dealer adds featureSize cards at a time to a table with no
+     * legal set (the extra cards are shown in extra rows of the grid). It is at most the number of keys of every human
+     * player, so every card on the table can be selected by all of them
+     */
+    public final int maxTableSize;
+
     /**
      * The width (in pixels) of each cell
      */
@@ -138,6 +206,7 @@ public class Config {
      * 1. This should correspond to the number of human players and the dimensions of the table card grid (i.e. the
      * first n codes are for the first row, the 2nd n codes are for the 2nd row etc., n being the number of columns).
      * 2. If the number of entries here does not match the number of human players a warning will be issued
+     * 3. Codes after the first tableSize ones select the extra slots (up to maxTableSize), in the same order
      */
     private final int[][] playerKeys;
 
@@ -145,8 +214,18 @@ public class Config {
      * The default scan codes data (this is the same as in the default config.properties file)
      */
     private static final String[] playerKeysDefaults = {
-            "81,87,69,82,65,83,68,70,90,88,67,86",
-            "85,73,79,80,74,75,76,59,77,44,46,47"};
+            "81,87,69,82,65,83,68,70,90,88,67,86,49,50,51,52,84,71,66,53,192",
+            "85,73,79,80,74,75,76,59,77,44,46,47,55,56,57,48,89,72,78,54,45"};
+
+    /**
+     * The scancode of the key each player submits its tokens as a claim with, when claims are of any size (0 if none)
+     */
+    private final int[] submitKeys;
+
+    /**
+     * The default submit keys (space and enter, the same as in the default config.properties file)
+     */
+    private static final String[] submitKeysDefaults = {"32", "10"};
 
     /**
      * Attempts to read the config properties from the current working directory. Otherwise, tries to load them
@@ -194,9 +273,26 @@ public class Config {
             logger.severe("invalid random spin cycles: max: " + randomSpinMax + " min: " + randomSpinMin);
 
         // cards settings
-        featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
-        featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
-        deckSize = (int) Math.pow(featureSize, featureCount);
+        rules = properties.getProperty("Rules", "classic").trim().toLowerCase();
+        projective = rules.equals("projective");
+        if (!projective && !rules.equals("classic"))
+            logger.severe("unknown rules " + rules + ", playing with the classic rules.");
+        if (projective) {
+            // every feature is a dot that is either missing or present, and there is no card without dots
+            featureSize = 2;
+            featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "6"));
+            deckSize = (1 << featureCount) - 1;
+            claimSize = Integer.parseInt(properties.getProperty("ClaimSize", "0"));
+        } else {
+            featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
+            featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
+            deckSize = (int) Math.pow(featureSize, featureCount);
+            claimSize = featureSize;
+        }
+        parallelThreshold = Integer.parseInt(properties.getProperty("ParallelThreshold", "243"));
+        utilEngine = properties.getProperty("UtilEngine", "fast").trim().toLowerCase();
+        shadowEngine = properties.getProperty("ShadowEngine", "").trim().toLowerCase();
+        shadowSampleRate = Double.parseDouble(properties.getProperty("ShadowSampleRate", "0.01"));
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
@@ -204,8 +300,13 @@ public class Config {
         players = humanPlayers + computerPlayers;
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
+        String seed = properties.getProperty("DeckSeed", "").trim();
+        deckSeed = seed.isEmpty() ? new Random().nextLong() : Long.parseLong(seed);
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
+        countdownTickMillis = Math.max(1, (long) (Double.parseDouble(properties.getProperty("CountdownTickSeconds", "1")) * 1000.0));
+        countdownWarningTickMillis = Math.max(1, (long) (Double.parseDouble(properties.getProperty("CountdownWarningTickSeconds", "0.01")) * 1000.0));
+        noSetGraceMillis = (long) (Double.parseDouble(properties.getProperty("NoSetGraceSeconds", "1")) * 1000.0);
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
@@ -219,6 +320,7 @@ public class Config {
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
+        int requestedMaxTableSize = Math.max(tableSize, Integer.parseInt(properties.getProperty("MaxTableSize", Integer.toString(tableSize + 3 * featureSize))));
         cellWidth = Integer.parseInt(properties.getProperty("CellWidth", "258"));
         cellHeight = Integer.parseInt(properties.getProperty("CellHeight", "167"));
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
@@ -226,22 +328,43 @@ public class Config {
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
 
         // keyboard input data
-        playerKeys = new int[players][rows * columns];
+        playerKeys = new int[players][];
         for (int i = 0; i < players; i++) {
             String defaultCodes = "";
             if (i < 2) defaultCodes = playerKeysDefaults[i];
             String playerKeysString = properties.getProperty("PlayerKeys" + (i + 1), defaultCodes);
+            // keys after the first tableSize ones are for the extra slots (up to maxTableSize)
+            String[] codes = playerKeysString.length() > 0 ? playerKeysString.split(",") : new String[0];
+            playerKeys[i] = new int[Math.max(tableSize, Math.min(codes.length, requestedMaxTableSize))];
             if (playerKeysString.length() > 0) {
-                String[] codes = playerKeysString.split(",");
-                if (codes.length != tableSize)
+                if (codes.length < tableSize || codes.length > requestedMaxTableSize)
                     logger.severe("warning: player " + (i + 1) + " keys (" + codes.length + ") mismatch table size (" + tableSize + ").");
-                for (int j = 0; j < Math.min(codes.length, tableSize); ++j) // parse the key codes string
-                    playerKeys[i][j] = Integer.parseInt(codes[j]);
+                for (int j = 0; j < Math.min(codes.length, playerKeys[i].length); ++j) // parse the key codes string
+                    playerKeys[i][j] = Integer.parseInt(codes[j].trim());
             }
         }
+
+        // the table only grows as far as the slots that every human player has keys for
+        int keyedSlots = requestedMaxTableSize;
+        for (int i = 0; i < humanPlayers; i++)
+            keyedSlots = Math.min(keyedSlots, playerKeys[i].length);
+        if (keyedSlots < requestedMaxTableSize)
+            logger.severe("warning: the table grows up to " + keyedSlots + " cards, the number of keys of the human players.");
+        maxTableSize = keyedSlots;
+        maxClaimSize = claimSize > 0 ? claimSize : maxTableSize;
+
+        submitKeys = new int[players];
+        for (int i = 0; i < players; i++) {
+            String submitKeyString = properties.getProperty("SubmitKey" + (i + 1), i < 2 ? submitKeysDefaults[i] : "");
+            if (submitKeyString.trim().length() > 0) submitKeys[i] = Integer.parseInt(submitKeyString.trim());
+        }
     }
 
     public int[] playerKeys(int player) {
         return playerKeys[player];
     }
+
+    public int submitKey(int player) {
+        return submitKeys[player];
+    }
 }
@@ -30,6 +30,16 @@ class InputManager extends KeyAdapter {
                 keyMap[keyCode] = player + 1; // 1 for first player and 2 for second player
                 keyToSlot[keyCode] = i;
             }
+
+        // with claims of any size, the players submit their tokens as a claim with a key of their own
+        if (config.claimSize == 0)
+            for (int player = 0; player < config.players; ++player) {
+                int keyCode = config.submitKey(player);
+                if (keyCode <= 0) continue;
+                if (keyCode >= keyMap.length) reallocArrays(keyCode);
+                keyMap[keyCode] = player + 1;
+                keyToSlot[keyCode] = Player.SUBMIT;
+            }
     }
 
     private void reallocArrays(int keyCode) {
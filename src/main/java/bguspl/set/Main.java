@@ -43,7 +43,7 @@ public class Main {
         logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
         Config config = new Config(logger, "config.properties");
-        Util util = new UtilImpl(config);
+        Util util = createUtil(config);
 
         Player[] players = new Player[config.players];
         UserInterface ui = null;
@@ -83,6 +83,36 @@ public class Main {
         }
     }
 
+    /**
+     * Creates the util engine named in the configuration, decorated with the shadow engine if one is named.
+     *
+     * @param config - the game configuration.
+     * @return - the util object of the game.
+     */
+    private static Util createUtil(Config config) {
+        Util util = createUtil(config, config.utilEngine);
+        if (!config.shadowEngine.isEmpty() && config.shadowSampleRate > 0) {
+            logger.severe("cross-checking " + config.shadowSampleRate + " of the " + config.utilEngine + " util calls with the " + config.shadowEngine + " engine.");
+            util = new UtilShadowDecorator(logger, config, util, createUtil(config, config.shadowEngine));
+        }
+        return util;
+    }
+
+    private static Util createUtil(Config config, String engine) {
+        if (config.projective) return new ProjectiveUtilImpl(config);
+        switch (engine) {
+            case "reference":
+                return new ReferenceUtilImpl(config);
+            case "parallel":
+                return new UtilImpl(config, 1);
+            case "fast":
+                return new UtilImpl(config);
+            default:
+                logger.severe("unknown util engine " + engine + ", using the fast engine.");
+                return new UtilImpl(config);
+        }
+    }
+
     private static Logger initLogger() {
 
         //just to make our log file nicer :)
@@ -0,0 +1,344 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The implementation of the Util interface for the projective rules.
+ * Every card shows a non-empty subset of config.featureCount dots, i.e. the bit vector (card id + 1), and a set is
+ * any non-empty collection of distinct cards whose vectors xor to zero. The players claim sets of any size, found and
+ * counted by Gaussian elimination (see DependencyCursor), unless the game is played with claims of a fixed number of
+ * tokens (config.claimSize), and then only the sets of that size are looked for.
+ */
+public class ProjectiveUtilImpl implements Util {
+
+    private final Config config;
+
+    /**
+     * The number of cards of the sets to look for, or 0 for sets of any size.
+     */
+    private final int setSize;
+
+    public ProjectiveUtilImpl(Config config) {
+        this.config = config;
+        this.setSize = config.claimSize;
+    }
+
+    /**
+     * Returns the dots of a card as a bit vector.
+     */
+    private static int vector(int card) {
+        return card + 1;
+    }
+
+    @Override
+    public int[] cardToFeatures(int card, int[] features) {
+        int dots = vector(card);
+        for (int i = config.featureCount - 1; i >= 0; --i) {
+            features[i] = dots & 1;
+            dots >>>= 1;
+        }
+        return features;
+    }
+
+    @Override
+    public int[] cardToFeatures(int card) {
+        return cardToFeatures(card, new int[config.featureCount]);
+    }
+
+    @Override
+    public int[][] cardsToFeatures(int[] cards, int[][] features) {
+        for (int i = 0; i < cards.length; ++i)
+            cardToFeatures(cards[i], features[i]);
+        return features;
+    }
+
+    @Override
+    public int[][] cardsToFeatures(int[] cards) {
+        return cardsToFeatures(cards, new int[cards.length][config.featureCount]);
+    }
+
+    @Override
+    public boolean testSet(int[] cards) {
+        if (cards.length == 0) return false;
+        int xor = 0;
+        for (int i = 0; i < cards.length; ++i) {
+            xor ^= vector(cards[i]);
+            // a card repeated twice would cancel itself out
+            for (int j = 0; j < i; ++j)
+                if (cards[i] == cards[j]) return false;
+        }
+        return xor == 0;
+    }
+
+    /**
+     * Three vectors that xor to zero are always distinct, since no card has the zero vector.
+     */
+    @Override
+    public boolean testSet(int first, int second, int third) {
+        return (vector(first) ^ vector(second) ^ vector(third)) == 0;
+    }
+
+    @Override
+    public void testSets(int[] triples, int count, long[] resultBits) {
+        for (int word = 0; word < (count + 63) >>> 6; ++word) {
+            long bits = 0;
+            int candidates = Math.min(Long.SIZE, count - (word << 6));
+            for (int t = 0, i = word * 3 * Long.SIZE; t < candidates; ++t, i += 3) {
+                long xor = vector(triples[i]) ^ vector(triples[i + 1]) ^ vector(triples[i + 2]);
+                bits |= (1L ^ ((xor | -xor) >>> 63)) << t;
+            }
+            resultBits[word] = bits;
+        }
+    }
+
+    @Override
+    public List<int[]> findSets(List<Integer> deck, int count) {
+        int[] cards = new int[deck.size()];
+        for (int i = 0; i < cards.length; ++i)
+            cards[i] = deck.get(i);
+
+        LinkedList<int[]> sets = new LinkedList<>();
+        findSets(cards, 0, cards.length, UtilImpl.collectTo(sets, count));
+        return sets;
+    }
+
+    @Override
+    public boolean findSets(int[] cards, int from, int to, SetSink sink) {
+        if (setSize > 0) {
+            int[] indices = indices(cards, from, to);
+            return completeSets(cards, to, indices, new int[setSize], 0, from, 0, new int[setSize], sink);
+        }
+        DependencyCursor cursor = new DependencyCursor(cards, from, to);
+        return cursor.passTo(cursor.next(), -1, new int[to - from + 2][], sink);
+    }
+
+    /**
+     * Returns the index of every vector among a range of cards (-1 if none).
+     */
+    private int[] indices(int[] cards, int from, int to) {
+        int[] indices = new int[1 << config.featureCount];
+        Arrays.fill(indices, -1);
+        for (int i = from; i < to; ++i)
+            indices[vector(cards[i])] = i;
+        return indices;
+    }
+
+    /**
+     * Chooses the rest of the cards of a set of setSize cards from index start on, in the order of the combinations
+     * of their indices: every combination of setSize - 1 cards is completed by the only card whose vector is their
+     * xor, if it comes after them.
+     *
+     * @param chosen - the cards chosen so far in its first depth entries.
+     * @param xor    - the xor of the vectors of the cards chosen so far.
+     * @return - true iff the sink stopped the search.
+     */
+    private boolean completeSets(int[] cards, int to, int[] indices, int[] chosen, int depth, int start, int xor,
+                                 int[] set, SetSink sink) {
+        if (depth == setSize - 1) {
+            int last = xor == 0 ? -1 : indices[xor];
+            if (last < start) return false;
+            System.arraycopy(chosen, 0, set, 0, depth);
+            set[depth] = cards[last];
+            Arrays.sort(set);
+            return !(setSize == 3 ? sink.accept(set[0], set[1], set[2]) : sink.accept(set));
+        }
+        for (int i = start; i < to - (setSize - 1 - depth); ++i) {
+            chosen[depth] = cards[i];
+            if (completeSets(cards, to, indices, chosen, depth + 1, i + 1, xor ^ vector(cards[i]), set, sink))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The other cards of a set with the card xor to the vector of the card, so they are found directly: the last of
+     * them by looking its vector up (with claims of a fixed size), or all of them by solving for the vector with the
+     * dependencies of the other cards (with claims of any size).
+     */
+    @Override
+    public boolean findSetsContaining(int card, int[] cards, SetSink sink) {
+        int[] others = new int[cards.length];
+        int count = 0;
+        for (int other : cards)
+            if (other != card) others[count++] = other;
+
+        if (setSize > 0) {
+            int[] chosen = new int[setSize];
+            chosen[0] = card;
+            return completeSets(others, count, indices(others, 0, count), chosen, 1, 0, vector(card), new int[setSize], sink);
+        }
+        DependencyCursor cursor = new DependencyCursor(others, 0, count);
+        return cursor.passTo(cursor.solve(vector(card)), card, new int[count + 2][], sink);
+    }
+
+    /**
+     * Every non-empty combination of the dependency basis is a different set (see DependencyCursor), so the sets
+     * of any size are counted without enumerating them (saturating at Long.MAX_VALUE).
+     */
+    @Override
+    public long countSets(int[] cards, int len) {
+        if (setSize > 0) {
+            long[] count = {0};
+            findSets(cards, 0, len, set -> {
+                ++count[0];
+                return true;
+            });
+            return count[0];
+        }
+        int dependencies = new DependencyCursor(cards, 0, len).basis.size();
+        return dependencies >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << dependencies) - 1;
+    }
+
+    /**
+     * The sets are found in the same order as findSets.
+     */
+    @Override
+    public Stream<int[]> streamSets(List<Integer> deck) {
+        if (setSize > 0) return findSets(deck, Integer.MAX_VALUE).stream();
+        DependencyCursor cursor = new DependencyCursor(deck.stream().mapToInt(Integer::intValue).toArray(), 0, deck.size());
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<int[]>(Long.MAX_VALUE, characteristics) {
+            @Override
+            public boolean tryAdvance(Consumer<? super int[]> action) {
+                long[] set = cursor.next();
+                if (set == null) return false;
+                int size = 0;
+                for (long word : set)
+                    size += Long.bitCount(word);
+                action.accept(cursor.toCards(set, new int[size]));
+                return true;
+            }
+        }, false);
+    }
+
+    /**
+     * Enumerates the sets in a range of cards with Gaussian elimination instead of testing combinations.
+     * Eliminating the vectors one by one leaves every card that depends on the previous ones with the subset of
+     * cards it xors to zero with. These subsets form a basis of all the sets, and the sets are enumerated as the
+     * non-empty combinations of the basis in Gray code order (one xor of index masks per set).
+     */
+    private class DependencyCursor {
+
+        private final int[] cards;
+        private final int from;
+        private final List<long[]> basis = new ArrayList<>();
+        private final long[] current;
+        private long combination = 0;
+
+        /**
+         * The reduced vectors by their leading bit (0 if none), with the masks of the card indices that xor to them.
+         */
+        private final int[] pivots;
+        private final long[][] pivotMasks;
+
+        DependencyCursor(int[] cards, int from, int to) {
+            this.cards = cards;
+            this.from = from;
+            int words = (to - from + 63) >>> 6;
+            current = new long[words];
+
+            pivots = new int[config.featureCount];
+            pivotMasks = new long[config.featureCount][];
+            for (int i = 0; i < to - from; ++i) {
+                int vector = vector(cards[from + i]);
+                long[] mask = new long[words];
+                mask[i >>> 6] |= 1L << i;
+                boolean independent = false;
+                for (int bit = config.featureCount - 1; bit >= 0 && vector != 0; --bit) {
+                    if ((vector & (1 << bit)) == 0) continue;
+                    if (pivots[bit] == 0) {
+                        pivots[bit] = vector;
+                        pivotMasks[bit] = mask;
+                        independent = true;
+                        break;
+                    }
+                    vector ^= pivots[bit];
+                    for (int w = 0; w < words; ++w)
+                        mask[w] ^= pivotMasks[bit][w];
+                }
+                if (!independent) basis.add(mask);
+            }
+        }
+
+        /**
+         * Finds the cards that xor to a vector, and starts the next sets from them: every other combination of the
+         * cards that xor to the vector is these cards xor a non-empty combination of the basis.
+         *
+         * @return - the mask of the card indices (reused by next), or null if no cards xor to the vector.
+         */
+        long[] solve(int vector) {
+            for (int bit = config.featureCount - 1; bit >= 0 && vector != 0; --bit) {
+                if ((vector & (1 << bit)) == 0) continue;
+                if (pivots[bit] == 0) return null;
+                vector ^= pivots[bit];
+                for (int w = 0; w < current.length; ++w)
+                    current[w] ^= pivotMasks[bit][w];
+            }
+            return current;
+        }
+
+        /**
+         * Passes a combination of cards and the ones after it (see next) to a sink, each with an extra card if any.
+         *
+         * @param set     - the mask of the card indices of the first combination, or null if none.
+         * @param card    - the card to add to every combination, or -1 if none.
+         * @param bySize  - an array of at least the number of cards + 2 entries, for the arrays of the sets by size.
+         * @return - true iff the sink stopped.
+         */
+        boolean passTo(long[] set, int card, int[][] bySize, SetSink sink) {
+            for (; set != null; set = next()) {
+                int size = card < 0 ? 0 : 1;
+                for (long word : set)
+                    size += Long.bitCount(word);
+                if (bySize[size] == null) bySize[size] = new int[size];
+                if (card >= 0) bySize[size][size - 1] = card;
+                toCards(set, bySize[size]);
+                int[] cards = bySize[size];
+                if (!(size == 3 ? sink.accept(cards[0], cards[1], cards[2]) : sink.accept(cards))) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Finds the next set.
+         *
+         * @return - the mask of the card indices of the set (reused by the next call), or null if there are no more.
+         */
+        long[] next() {
+            if (basis.size() < Long.SIZE - 1 && combination == (1L << basis.size()) - 1) return null;
+            ++combination;
+            long[] change = basis.get(Long.numberOfTrailingZeros(combination));
+            for (int w = 0; w < current.length; ++w)
+                current[w] ^= change[w];
+            return current;
+        }
+
+        /**
+         * Writes the card ids of a set into an array, and sorts the array (with any entries after the set).
+         */
+        int[] toCards(long[] set, int[] out) {
+            int size = 0;
+            for (int w = 0; w < set.length; ++w)
+                for (long word = set[w]; word != 0; word &= word - 1)
+                    out[size++] = cards[from + (w << 6) + Long.numberOfTrailingZeros(word)];
+            Arrays.sort(out);
+            return out;
+        }
+    }
+
+    public void spin() {
+        if (config.randomSpinMax <= 0) return;
+        long cycles = ThreadLocalRandom.current().nextLong(config.randomSpinMin, config.randomSpinMax);
+        for (int i = 0; i < cycles; ++i)
+            Thread.yield();
+    }
+}
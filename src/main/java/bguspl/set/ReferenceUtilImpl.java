@@ -0,0 +1,127 @@
+package bguspl.set;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The reference implementation of the classic rules: compares the features of the cards one by one and tests every
+ * combination of cards. It is slow, but simple enough to cross-check the faster engines against.
+ */
+public class ReferenceUtilImpl extends UtilImpl {
+
+    public ReferenceUtilImpl(Config config) {
+        super(config, 0);
+    }
+
+    @Override
+    public boolean testSet(int[] cards) {
+        return testSetByFeatures(cards);
+    }
+
+    @Override
+    public boolean testSet(int first, int second, int third) {
+        return testSet(new int[]{first, second, third});
+    }
+
+    @Override
+    public void testSets(int[] triples, int count, long[] resultBits) {
+        Arrays.fill(resultBits, 0, (count + 63) >>> 6, 0L);
+        for (int i = 0; i < count; ++i)
+            if (testSet(triples[3 * i], triples[3 * i + 1], triples[3 * i + 2]))
+                resultBits[i >>> 6] |= 1L << i;
+    }
+
+    @Override
+    public List<int[]> findSets(List<Integer> deck, int count) {
+        LinkedList<int[]> sets = new LinkedList<>();
+        Iterator<int[]> combinations = new Combinations(deck.stream().mapToInt(Integer::intValue).toArray());
+        while (combinations.hasNext()) {
+            sets.add(combinations.next());
+            if (sets.size() >= count) break;
+        }
+        return sets;
+    }
+
+    @Override
+    public boolean findSets(int[] cards, int from, int to, SetSink sink) {
+        Iterator<int[]> combinations = new Combinations(Arrays.copyOfRange(cards, from, to));
+        while (combinations.hasNext()) {
+            int[] set = combinations.next();
+            if (!(set.length == 3 ? sink.accept(set[0], set[1], set[2]) : sink.accept(set))) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean findSetsContaining(int card, int[] cards, SetSink sink) {
+        return findSetsContainingByFilter(this, card, cards, sink);
+    }
+
+    @Override
+    public long countSets(int[] cards, int len) {
+        long count = 0;
+        for (Iterator<int[]> combinations = new Combinations(Arrays.copyOf(cards, len)); combinations.hasNext(); combinations.next())
+            ++count;
+        return count;
+    }
+
+    @Override
+    public Stream<int[]> streamSets(List<Integer> deck) {
+        Iterator<int[]> combinations = new Combinations(deck.stream().mapToInt(Integer::intValue).toArray());
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(combinations, characteristics), false);
+    }
+
+    /**
+     * Iterates over the sets among all the config.featureSize combinations of cards, in lexicographic order.
+     */
+    private class Combinations implements Iterator<int[]> {
+
+        private final int[] deck;
+        private final int[] combination = new int[config.featureSize];
+        private int[] next;
+
+        Combinations(int[] deck) {
+            this.deck = deck;
+            for (int i = 0; i < combination.length; ++i)
+                combination[i] = i;
+            advance();
+        }
+
+        private void advance() {
+            int n = deck.length;
+            int r = combination.length;
+            next = null;
+            while (next == null && combination[r - 1] < n) {
+                int[] cards = Arrays.stream(combination).map(i -> deck[i]).sorted().toArray();
+                if (testSet(cards)) next = cards;
+
+                // generate next combination in lexicographic order
+                int t = r - 1;
+                while (t != 0 && combination[t] == n - r + t) --t;
+                combination[t]++;
+                for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public int[] next() {
+            if (next == null) throw new NoSuchElementException();
+            int[] set = next;
+            advance();
+            return set;
+        }
+    }
+}
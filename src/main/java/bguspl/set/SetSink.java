@@ -0,0 +1,34 @@
+package bguspl.set;
+
+/**
+ * A callback that receives the sets found by Util::findSets, without boxing (and without allocating per set, for
+ * the sinks that override the three card accept).
+ */
+@FunctionalInterface
+public interface SetSink {
+
+    /**
+     * A sink that stops at the first set of any size (i.e. findSets with this sink returns true iff there is a set).
+     */
+    SetSink ANY = cards -> false;
+
+    /**
+     * Receives a set of any size.
+     *
+     * @param cards - the sorted card ids of the set. The array may be reused after this call returns.
+     * @return - true iff the search should continue.
+     */
+    boolean accept(int[] cards);
+
+    /**
+     * Receives a set of three cards. Sinks that are called for many sets override this to avoid the array.
+     *
+     * @param first  - the smallest card id of the set.
+     * @param second - the middle card id of the set.
+     * @param third  - the largest card id of the set.
+     * @return - true iff the search should continue.
+     */
+    default boolean accept(int first, int second, int third) {
+        return accept(new int[]{first, second, third});
+    }
+}
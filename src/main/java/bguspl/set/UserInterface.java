@@ -18,6 +18,19 @@ public interface UserInterface {
      */
     void removeCard(int slot);
 
+    /**
+     * Draw the card images corresponding to the card ids in the specified slots, as one update.
+     * @param cards - the card ids.
+     * @param slots - the slot numbers (respectively).
+     */
+    void placeCards(int[] cards, int[] slots);
+
+    /**
+     * Draw empty card images in the specified slots, as one update.
+     * @param slots - the slot numbers.
+     */
+    void removeCards(int[] slots);
+
     /**
      * Draw a player name text in the specified slot.
      * @param player - the card id.
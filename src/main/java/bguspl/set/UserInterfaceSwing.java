@@ -4,10 +4,16 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -24,6 +30,26 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final WinnerPanel winnerPanel;
     private final Config config;
 
+    /**
+     * The updates of the table grid that are not shown yet, in the order they were made, and the thread that shows
+     * them. The card changes are shown config.tableDelayMillis apart so the players can follow the dealer, while
+     * the table itself changes at once (the delay is only in the display).
+     */
+    private final Queue<GridUpdate> pendingGridUpdates = new ArrayDeque<>();
+    private final ScheduledExecutorService gridUpdates;
+    private long lastDueNanos = System.nanoTime();
+    private long nextCardChangeNanos = lastDueNanos;
+
+    private static class GridUpdate {
+        final long dueNanos;
+        final Runnable update;
+
+        GridUpdate(long dueNanos, Runnable update) {
+            this.dueNanos = dueNanos;
+            this.update = update;
+        }
+    }
+
     static String intInBaseToPaddedString(int n, int padding, int base) {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
@@ -31,6 +57,11 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
 
         this.config = config;
+        gridUpdates = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "table-display");
+            thread.setDaemon(true);
+            return thread;
+        });
         timerPanel = new TimerPanel();
         gamePanel = new GamePanel();
         playersPanel = new PlayersPanel();
@@ -108,6 +139,11 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private final boolean[][][] playerTokens;
         private final JLabel[][] tokenText;
 
+        /**
+         * The number of rows shown: config.rows, plus the extra rows that hold cards (see Config.maxTableSize).
+         */
+        private int shownRows = config.rows;
+
         private Image loadImageResource(String filename) {
             URL imageResource = getClass().getClassLoader().getResource(filename);
             if (imageResource == null)
@@ -115,6 +151,31 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             return new ImageIcon(imageResource).getImage();
         }
 
+        /**
+         * Draws a projective card: a grid of two rows of dot places, with a colored dot for every set bit.
+         */
+        private Image drawProjectiveCard(int dots) {
+            Color[] colors = {Color.RED, Color.ORANGE, Color.YELLOW, Color.GREEN, Color.BLUE, Color.MAGENTA};
+            BufferedImage image = new BufferedImage(config.cellWidth, config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.fillRoundRect(4, 4, config.cellWidth - 8, config.cellHeight - 8, 20, 20);
+
+            int columns = (config.featureCount + 1) / 2;
+            int cellWidth = (config.cellWidth - 8) / columns, cellHeight = (config.cellHeight - 8) / 2;
+            int diameter = Math.min(cellWidth, cellHeight) * 2 / 3;
+            for (int i = 0; i < config.featureCount; ++i) {
+                if ((dots & (1 << i)) == 0) continue;
+                int x = 4 + (i % columns) * cellWidth + (cellWidth - diameter) / 2;
+                int y = 4 + (i / columns) * cellHeight + (cellHeight - diameter) / 2;
+                g.setColor(colors[i % colors.length]);
+                g.fillOval(x, y, diameter, diameter);
+            }
+            g.dispose();
+            return image;
+        }
+
         private GamePanel() {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
@@ -122,16 +183,18 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             // init deck and load all pictures from png files
             assert config.featureSize < 10; // otherwise there will be naming conflicts
 
-            // load the image resources
+            // load the image resources (there are none for the projective cards, so these are drawn instead)
             deck = new Image[config.deckSize];
             for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
+                deck[i] = config.projective ? drawProjectiveCard(i + 1)
+                        : loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
             emptyCard = loadImageResource("cards/empty_card.png");
 
-            grid = new Image[config.rows][config.columns];
-            tokenText = new JLabel[config.rows][config.columns];
-            playerTokens = new boolean[config.players][config.rows][config.columns];
-            for (int row = 0; row < config.rows; row++) {
+            int rows = (config.maxTableSize + config.columns - 1) / config.columns;
+            grid = new Image[rows][config.columns];
+            tokenText = new JLabel[rows][config.columns];
+            playerTokens = new boolean[config.players][rows][config.columns];
+            for (int row = 0; row < rows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
                     grid[row][column] = emptyCard;
@@ -152,6 +215,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             int row = slot / config.columns;
             int column = slot % config.columns;
             grid[row][column] = deck[card];
+            showRows();
             validate();
             repaint();
         }
@@ -160,10 +224,42 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             int row = slot / config.columns;
             int column = slot % config.columns;
             grid[row][column] = emptyCard;
+            showRows();
+            validate();
+            repaint();
+        }
+
+        private void placeCards(int[] slots, int[] cards) {
+            for (int i = 0; i < slots.length; ++i)
+                grid[slots[i] / config.columns][slots[i] % config.columns] = deck[cards[i]];
+            showRows();
+            validate();
+            repaint();
+        }
+
+        private void removeCards(int[] slots) {
+            for (int slot : slots)
+                grid[slot / config.columns][slot % config.columns] = emptyCard;
+            showRows();
             validate();
             repaint();
         }
 
+        /**
+         * Grows or shrinks the grid to the rows that hold cards (and at least config.rows).
+         */
+        private void showRows() {
+            int rows = config.rows;
+            for (int row = config.rows; row < grid.length; row++)
+                for (int column = 0; column < config.columns; column++)
+                    if (grid[row][column] != emptyCard)
+                        rows = row + 1;
+            if (rows == shownRows) return;
+            shownRows = rows;
+            setPreferredSize(new Dimension(config.columns * config.cellWidth, rows * config.cellHeight));
+            EventQueue.invokeLater(UserInterfaceSwing.this::pack);
+        }
+
         private void placeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
@@ -172,7 +268,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         }
 
         private void removeTokens() {
-            for (int i = 0; i < config.tableSize; i++)
+            for (int i = 0; i < grid.length * config.columns; i++)
                 removeTokens(i);
         }
 
@@ -206,7 +302,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         @Override
         public void paintComponent(Graphics g) {
             // draw card images
-            for (int row = 0; row < config.rows; row++)
+            for (int row = 0; row < shownRows; row++)
                 for (int column = 0; column < config.columns; column++)
                     g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
         }
@@ -274,34 +370,80 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         }
     }
 
+    /**
+     * Shows an update of the table grid after all the earlier ones, and at least config.tableDelayMillis after the
+     * previous card change if it is a card change itself.
+     */
+    private void showOnGrid(boolean cardChange, Runnable update) {
+        long delayNanos;
+        synchronized (pendingGridUpdates) {
+            long now = System.nanoTime();
+            long due = Math.max(now, lastDueNanos);
+            if (cardChange) {
+                due = Math.max(due, nextCardChangeNanos);
+                nextCardChangeNanos = due + TimeUnit.MILLISECONDS.toNanos(config.tableDelayMillis);
+            }
+            lastDueNanos = due;
+            pendingGridUpdates.add(new GridUpdate(due, update));
+            delayNanos = due - now;
+        }
+        gridUpdates.schedule(this::showDueGridUpdates, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Shows the pending grid updates that are due, in order. Every update is scheduled to be shown no earlier than
+     * it is due, so updates that are not due yet are left to a later call.
+     */
+    private void showDueGridUpdates() {
+        while (true) {
+            GridUpdate next;
+            synchronized (pendingGridUpdates) {
+                next = pendingGridUpdates.peek();
+                if (next == null || next.dueNanos - System.nanoTime() > 0) return;
+                pendingGridUpdates.poll();
+            }
+            next.update.run();
+        }
+    }
+
     @Override
     public void placeCard(int card, int slot) {
-        gamePanel.placeCard(slot, card);
+        showOnGrid(true, () -> gamePanel.placeCard(slot, card));
     }
 
     @Override
     public void removeCard(int slot) {
-        gamePanel.removeCard(slot);
+        showOnGrid(true, () -> gamePanel.removeCard(slot));
+    }
+
+    @Override
+    public void placeCards(int[] cards, int[] slots) {
+        showOnGrid(true, () -> gamePanel.placeCards(slots, cards));
+    }
+
+    @Override
+    public void removeCards(int[] slots) {
+        showOnGrid(true, () -> gamePanel.removeCards(slots));
     }
 
     @Override
     public void placeToken(int player, int slot) {
-        gamePanel.placeToken(player, slot);
+        showOnGrid(false, () -> gamePanel.placeToken(player, slot));
     }
 
     @Override
     public void removeTokens() {
-        gamePanel.removeTokens();
+        showOnGrid(false, gamePanel::removeTokens);
     }
 
     @Override
     public void removeTokens(int slot) {
-        gamePanel.removeTokens(slot);
+        showOnGrid(false, () -> gamePanel.removeTokens(slot));
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        gamePanel.removeToken(player, slot);
+        showOnGrid(false, () -> gamePanel.removeToken(player, slot));
     }
 
     @Override
@@ -333,6 +475,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void dispose() {
+        gridUpdates.shutdownNow();
         super.dispose();
     }
 }
@@ -1,6 +1,7 @@
 package bguspl.set;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * An interface for general utilities provided for convenience.
@@ -15,6 +16,15 @@ public interface Util {
      */
     int[] cardToFeatures(int card);
 
+    /**
+     * Converts a card id to an array of features, writing them into a given array (see cardToFeatures).
+     *
+     * @param card     - the card id.
+     * @param features - an array of at least config.featureCount values to write the features to.
+     * @return - the given array of features.
+     */
+    int[] cardToFeatures(int card, int[] features);
+
     /**
      * Converts an array of card ids to an array of features (see cardToFeatures method).
      *
@@ -23,6 +33,15 @@ public interface Util {
      */
     int[][] cardsToFeatures(int[] cards);
 
+    /**
+     * Converts an array of card ids to an array of features, writing them into a given 2d array (see cardsToFeatures).
+     *
+     * @param cards    - an array of card ids.
+     * @param features - a 2d array with a row of at least config.featureCount values per card.
+     * @return - the given 2d array of features.
+     */
+    int[][] cardsToFeatures(int[] cards, int[][] features);
+
     /**
      * Checks if an array of cards forms a legal set.
      *
@@ -31,6 +50,26 @@ public interface Util {
      */
     boolean testSet(int[] cards);
 
+    /**
+     * Checks if three cards form a legal set.
+     *
+     * @param first  - the first card id.
+     * @param second - the second card id.
+     * @param third  - the third card id.
+     * @return - true iff the cards form a legal set.
+     */
+    boolean testSet(int first, int second, int third);
+
+    /**
+     * Checks a batch of triples of cards at once.
+     *
+     * @param triples    - the card ids of the triples, three consecutive entries per triple.
+     * @param count      - the number of triples to check.
+     * @param resultBits - an array of at least (count + 63) / 64 words. Bit (i % 64) of word (i / 64) is set iff
+     *                   triple i forms a legal set, and the bits after the last triple are cleared.
+     */
+    void testSets(int[] triples, int count, long[] resultBits);
+
     /**
      * Finds and returns up to count sets in the given collection of cards.
      *
@@ -40,6 +79,46 @@ public interface Util {
      */
     List<int[]> findSets(List<Integer> deck, int count);
 
+    /**
+     * Lazily finds the sets in the given collection of cards, in the same order as findSets.
+     * No work is done beyond the last set consumed from the stream.
+     *
+     * @param deck - a collection of cards (may not include null objects).
+     * @return - a stream of integer arrays, each one contains the card ids of a legal set.
+     */
+    Stream<int[]> streamSets(List<Integer> deck);
+
+    /**
+     * Finds the sets in a range of an array of cards and passes them to a sink, in the same order as findSets.
+     *
+     * @param cards - an array of card ids.
+     * @param from  - the index of the first card to search.
+     * @param to    - the index after the last card to search.
+     * @param sink  - the sink that receives the sets and decides whether to continue.
+     * @return - true iff the sink asked to stop.
+     */
+    boolean findSets(int[] cards, int from, int to, SetSink sink);
+
+    /**
+     * Finds the sets that a given card forms with the cards of an array, and passes them to a sink.
+     * The card does not have to be one of the cards (e.g. to check what a card would add to the table).
+     *
+     * @param card  - the card id that all the sets include.
+     * @param cards - an array of card ids.
+     * @param sink  - the sink that receives the sets and decides whether to continue.
+     * @return - true iff the sink asked to stop.
+     */
+    boolean findSetsContaining(int card, int[] cards, SetSink sink);
+
+    /**
+     * Counts the sets in the first cards of an array, without building them.
+     *
+     * @param cards - an array of card ids.
+     * @param len   - the number of cards to search (from the start of the array).
+     * @return - the number of legal sets among the cards.
+     */
+    long countSets(int[] cards, int len);
+
     /**
      * Spin a random number of times (for debugging/testing).
      */
@@ -1,45 +1,155 @@
 package bguspl.set;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The implementation of the UserInterface interface.
  */
 public class UtilImpl implements Util {
 
-    private final Config config;
+    final Config config;
+
+    /**
+     * The lookup tables of the deck (shared with all other instances for the same deck).
+     */
+    private final CardTables tables;
+
+    /**
+     * The packed cards and lane masks of the tables (see CardTables).
+     */
+    private final long[] packed;
+    private final long laneHigh;
+    private final long laneLow;
+
+    /**
+     * The minimal number of cards for which sets are searched for in parallel (0 or less to always search sequentially).
+     */
+    private final int parallelThreshold;
+
+    /**
+     * A bitmap over card ids for each thread, left empty between calls.
+     */
+    private final ThreadLocal<long[]> bitmaps;
 
     public UtilImpl(Config config) {
+        this(config, config.parallelThreshold);
+    }
+
+    /**
+     * @param config            - the game configuration.
+     * @param parallelThreshold - the minimal number of cards for which sets are searched for in parallel.
+     */
+    public UtilImpl(Config config, int parallelThreshold) {
         this.config = config;
+        this.parallelThreshold = parallelThreshold;
+        tables = CardTables.of(config);
+        packed = tables.packed;
+        laneHigh = tables.laneHigh;
+        laneLow = tables.laneLow;
+        bitmaps = ThreadLocal.withInitial(() -> new long[(config.deckSize + 63) >>> 6]);
     }
 
-    private void cardToFeatures(int card, int[] features) {
-        for (int i = config.featureCount - 1; i >= 0; --i) {
-            features[i] = card % config.featureSize;
-            card /= config.featureSize;
-        }
+    @Override
+    public int[] cardToFeatures(int card, int[] features) {
+        if (tables.features != null)
+            System.arraycopy(tables.features, card * config.featureCount, features, 0, config.featureCount);
+        else
+            tables.featuresByArithmetic(card, features, 0);
+        return features;
     }
 
     @Override
     public int[] cardToFeatures(int card) {
-        int[] features = new int[config.featureCount];
-        cardToFeatures(card, features);
+        return cardToFeatures(card, new int[config.featureCount]);
+    }
+
+    @Override
+    public int[][] cardsToFeatures(int[] cards, int[][] features) {
+        for (int i = 0; i < cards.length; ++i)
+            cardToFeatures(cards[i], features[i]);
         return features;
     }
 
     @Override
     public int[][] cardsToFeatures(int[] cards) {
-        int[][] features = new int[cards.length][config.featureCount];
-        IntStream.range(0, cards.length).forEach(i -> cardToFeatures(cards[i], features[i]));
-        return features;
+        return cardsToFeatures(cards, new int[cards.length][config.featureCount]);
+    }
+
+    /**
+     * Returns a word with the top bit of a lane set iff that lane of x is not zero.
+     */
+    private long nonZeroLanes(long x) {
+        return (((x & laneLow) + laneLow) | x) & laneHigh;
     }
 
     @Override
     public boolean testSet(int[] cards) {
+        if (packed == null) return testSetByFeatures(cards);
+
+        // a single card is both "all same" and "all different", which is not a legal set
+        if (cards.length < 2) return config.featureCount == 0;
+
+        // a lane is illegal iff its values are not all the same and some value appears twice
+        long or = 0, and = -1L, twice = 0;
+        for (int card : cards) {
+            long word = packed[card];
+            twice |= or & word;
+            or |= word;
+            and &= word;
+        }
+        return (nonZeroLanes(or ^ and) & nonZeroLanes(twice)) == 0;
+    }
+
+    /**
+     * In one-hot lanes a value seen exactly twice is the only one that is set in the or but not in the xor.
+     */
+    @Override
+    public boolean testSet(int first, int second, int third) {
+        if (packed == null) return testSetByFeatures(new int[]{first, second, third});
+        long a = packed[first], b = packed[second], c = packed[third];
+        return (a ^ b ^ c) == (a | b | c);
+    }
+
+    /**
+     * Every packed word already holds all the features of a card, so each candidate is checked with a handful of
+     * word-wide operations, and the result bit is derived without branching.
+     */
+    @Override
+    public void testSets(int[] triples, int count, long[] resultBits) {
+        for (int word = 0; word < (count + 63) >>> 6; ++word) {
+            long bits = 0;
+            int candidates = Math.min(Long.SIZE, count - (word << 6));
+            for (int t = 0, i = word * 3 * Long.SIZE; t < candidates; ++t, i += 3) {
+                if (packed == null) {
+                    if (testSet(triples[i], triples[i + 1], triples[i + 2])) bits |= 1L << t;
+                    continue;
+                }
+                long a = packed[triples[i]], b = packed[triples[i + 1]], c = packed[triples[i + 2]];
+                long illegal = (a ^ b ^ c) ^ (a | b | c);
+                bits |= (1L ^ ((illegal | -illegal) >>> 63)) << t;
+            }
+            resultBits[word] = bits;
+        }
+    }
+
+    /**
+     * Compares the features of the cards one by one (for cards that do not fit in packed words, and for the
+     * reference engine).
+     */
+    boolean testSetByFeatures(int[] cards) {
         int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
         for (int i = 0; i < config.featureCount; ++i) {
             boolean sameSame = true, butDifferent = true;
@@ -64,32 +174,568 @@ public class UtilImpl implements Util {
         return true;
     }
 
+    /**
+     * Returns the only card that completes a set with two given cards (for config.featureSize == 3).
+     *
+     * @param first  - the first card id.
+     * @param second - the second card id (different from the first).
+     * @return - the card id of the third card of the set.
+     */
+    public int thirdCard(int first, int second) {
+        if (tables.thirdCards != null) return tables.thirdCards[first * config.deckSize + second];
+        return tables.thirdCardByArithmetic(first, second);
+    }
+
+    /**
+     * Checks whether the last card of a set is determined by the others, so sets can be found by completion.
+     * This holds for 3 or more values per feature: the last value of a feature is the one shared by all the other
+     * cards, or the only value missing from them.
+     */
+    private boolean completable() {
+        return config.featureSize == 3 || (config.featureSize > 3 && packed != null);
+    }
+
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
+        int[] cards = new int[deck.size()];
+        for (int i = 0; i < cards.length; ++i)
+            cards[i] = deck.get(i);
+
+        if (completable() && parallelThreshold > 0 && cards.length >= parallelThreshold
+                && ForkJoinPool.getCommonPoolParallelism() > 1)
+            return findSetsInParallel(cards, count);
+
         LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
-        int r = config.featureSize;
-        int[] combination = new int[r];
+        findSets(cards, 0, cards.length, collectTo(sets, count));
+        return sets;
+    }
 
-        for (int i = 0; i < r; ++i)
-            combination[i] = i;
+    /**
+     * Sets are found by completion (see findSetsStartingAt) in the same order as the lexicographic combinations of
+     * the cards, since the last card is only accepted if it comes after all the others in the array.
+     */
+    @Override
+    public boolean findSets(int[] cards, int from, int to, SetSink sink) {
+        if (!completable()) {
+            Spliterator<int[]> combinations = new CombinationSpliterator(Arrays.copyOfRange(cards, from, to));
+            boolean[] stopped = {false};
+            while (!stopped[0] && combinations.tryAdvance(set -> stopped[0] = !sink.accept(set)));
+            return stopped[0];
+        }
 
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
+        long[] ahead = new long[(config.deckSize + 63) >>> 6];
+        for (int i = from; i < to - config.featureSize + 1; ++i)
+            if (findSetsStartingAt(cards, i, to, ahead, sink)) return true;
+        return false;
+    }
+
+    /**
+     * For 3 values per feature, the row of the third card table of the card is its completion index: each of the
+     * cards completes with the card to a single card id, which is looked up in a bitmap of the cards after it.
+     * So the sets are found with one pass over the cards, in the order of their second card.
+     * Otherwise, the sets of the cards and the card are searched and filtered.
+     */
+    @Override
+    public boolean findSetsContaining(int card, int[] cards, SetSink sink) {
+        if (config.featureSize != 3) return findSetsContainingByFilter(this, card, cards, sink);
+
+        long[] ahead = bitmaps.get();
+        for (int other : cards)
+            ahead[other >>> 6] |= 1L << other;
+        ahead[card >>> 6] &= ~(1L << card);
+
+        for (int i = 0; i < cards.length; ++i) {
+            int b = cards[i];
+            if (b == card) continue;
+            ahead[b >>> 6] &= ~(1L << b);
+            int c = thirdCard(card, b);
+            if ((ahead[c >>> 6] & (1L << c)) != 0) {
+                int low = Math.min(card, Math.min(b, c)), high = Math.max(card, Math.max(b, c));
+                if (!sink.accept(low, card + b + c - low - high, high))
+                    return clearAhead(cards, i, cards.length, ahead);
             }
+        }
+        return false;
+    }
 
-            // generate next combination in lexicographic order
-            int t = r - 1;
-            while (t != 0 && combination[t] == n - r + t) --t;
-            combination[t]++;
-            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+    /**
+     * Finds the sets that a card forms with an array of cards by searching all the sets of the cards and the card,
+     * and passing on the ones that include the card.
+     */
+    static boolean findSetsContainingByFilter(Util util, int card, int[] cards, SetSink sink) {
+        int[] deck = cards;
+        int index = 0;
+        while (index < cards.length && cards[index] != card) ++index;
+        if (index == cards.length) {
+            deck = Arrays.copyOf(cards, cards.length + 1);
+            deck[cards.length] = card;
+        }
+
+        return util.findSets(deck, 0, deck.length, new SetSink() {
+            @Override
+            public boolean accept(int first, int second, int third) {
+                return (first != card && second != card && third != card) || sink.accept(first, second, third);
+            }
+
+            @Override
+            public boolean accept(int[] set) {
+                for (int other : set)
+                    if (other == card) return sink.accept(set);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public long countSets(int[] cards, int len) {
+        if (!completable()) {
+            long[] count = {0};
+            findSets(cards, 0, len, set -> {
+                ++count[0];
+                return true;
+            });
+            return count[0];
+        }
+
+        if (parallelThreshold > 0 && len >= parallelThreshold && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            int firsts = Math.max(len - config.featureSize + 1, 0);
+            int grain = Math.max(1, firsts / (4 * ForkJoinPool.getCommonPoolParallelism()));
+            return ForkJoinPool.commonPool().invoke(new CountTask(cards, 0, firsts, len, grain));
+        }
+
+        long[] ahead = new long[(config.deckSize + 63) >>> 6];
+        int[] set = new int[config.featureSize];
+        long count = 0;
+        for (int i = 0; i < len - config.featureSize + 1; ++i)
+            count += countSetsStartingAt(cards, i, len, ahead, set);
+        return count;
+    }
+
+    /**
+     * Counts the sets whose first card is cards[first] (see findSetsStartingAt).
+     *
+     * @param set - an array of config.featureSize entries to use while completing sets of more than 3 cards.
+     */
+    private long countSetsStartingAt(int[] cards, int first, int to, long[] ahead, int[] set) {
+        long count = 0;
+        if (config.featureSize != 3) {
+            CompletionCursor cursor = new CompletionCursor(cards, first, first + 1, to, ahead);
+            while (cursor.next(set)) ++count;
+            return count;
+        }
+
+        for (int k = first + 1; k < to; ++k)
+            ahead[cards[k] >>> 6] |= 1L << cards[k];
+
+        int a = cards[first];
+        for (int j = first + 1; j < to - 1; ++j) {
+            int b = cards[j];
+            ahead[b >>> 6] &= ~(1L << b);
+            int c = thirdCard(a, b);
+            count += (ahead[c >>> 6] >>> c) & 1L;
+        }
+        ahead[cards[to - 1] >>> 6] &= ~(1L << cards[to - 1]);
+        return count;
+    }
+
+    /**
+     * Counts the sets starting at a range of first card indices, splitting the range between the workers.
+     */
+    private class CountTask extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] cards;
+        private final int from, to, len, grain;
+
+        CountTask(int[] cards, int from, int to, int len, int grain) {
+            this.cards = cards;
+            this.from = from;
+            this.to = to;
+            this.len = len;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                CountTask right = new CountTask(cards, middle, to, len, grain);
+                right.fork();
+                return new CountTask(cards, from, middle, len, grain).compute() + right.join();
+            }
+
+            long[] ahead = new long[(config.deckSize + 63) >>> 6];
+            int[] set = new int[config.featureSize];
+            long count = 0;
+            for (int i = from; i < to; ++i)
+                count += countSetsStartingAt(cards, i, len, ahead, set);
+            return count;
+        }
+    }
+
+    /**
+     * Returns a sink that adds copies of the sets to a list until it holds count sets.
+     */
+    static SetSink collectTo(List<int[]> sets, int count) {
+        return cards -> {
+            sets.add(cards.clone());
+            return sets.size() < count;
+        };
+    }
+
+    /**
+     * Passes the sets whose first card is cards[first] to a sink (in order), while it asks to continue.
+     * For 3 values per feature, walks the pairs of cards and looks up the card that completes each pair.
+     *
+     * @param cards - the cards to search.
+     * @param first - the index of the first card of the sets.
+     * @param to    - the index after the last card to search.
+     * @param ahead - a bitmap over card ids holding at most cards[to - 1] (and left that way).
+     * @param sink  - the sink to pass the sets to, as sorted card ids.
+     * @return - true iff the sink asked to stop.
+     */
+    private boolean findSetsStartingAt(int[] cards, int first, int to, long[] ahead, SetSink sink) {
+        if (config.featureSize != 3) {
+            CompletionCursor cursor = new CompletionCursor(cards, first, first + 1, to, ahead);
+            int[] set = new int[config.featureSize];
+            while (cursor.next(set))
+                if (!sink.accept(set)) return clearAhead(cards, first, to, ahead);
+            return false;
+        }
+
+        for (int k = first + 1; k < to; ++k)
+            ahead[cards[k] >>> 6] |= 1L << cards[k];
+
+        int a = cards[first];
+        for (int j = first + 1; j < to - 1; ++j) {
+            int b = cards[j];
+            ahead[b >>> 6] &= ~(1L << b);
+            int c = thirdCard(a, b);
+            if ((ahead[c >>> 6] & (1L << c)) != 0) {
+                // pass the three cards in ascending order
+                int low = Math.min(a, Math.min(b, c)), high = Math.max(a, Math.max(b, c));
+                if (!sink.accept(low, a + b + c - low - high, high)) return clearAhead(cards, first, to, ahead);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clears the cards after cards[first] from a bitmap, when a search stops early.
+     *
+     * @return - true.
+     */
+    private static boolean clearAhead(int[] cards, int first, int to, long[] ahead) {
+        for (int k = first + 1; k < to; ++k)
+            ahead[cards[k] >>> 6] &= ~(1L << cards[k]);
+        return true;
+    }
+
+    /**
+     * Finds sets of config.featureSize cards by enumerating the first featureSize - 1 cards of each set in
+     * lexicographic order and computing the card that completes them.
+     * The or/and/twice words of the chosen cards are kept per depth, so a branch is pruned as soon as one of its
+     * features is neither all the same nor all different (the test of testSet), and the last card is taken straight
+     * from the words: the shared value in the lanes that are all the same, and the missing value in the others.
+     * The search can be paused after every set, so it also drives the lazy streams.
+     */
+    private class CompletionCursor {
+
+        private final int[] cards;
+        private final int firstTo, to;
+        private final long[] ahead;
+
+        /**
+         * The number of cards chosen before the last one.
+         */
+        private final int prefix = config.featureSize - 1;
+
+        /**
+         * The index of the chosen card and the index of the next candidate at each depth.
+         */
+        private final int[] chosen = new int[prefix];
+        private final int[] next = new int[prefix];
+
+        /**
+         * The or/and/twice words of the first d chosen cards, at index d.
+         */
+        private final long[] or = new long[prefix + 1];
+        private final long[] and = new long[prefix + 1];
+        private final long[] twice = new long[prefix + 1];
+
+        private int depth = 0;
+
+        /**
+         * @param cards     - the cards to search.
+         * @param firstFrom - the index of the first card of the first sets to find.
+         * @param firstTo   - the index after the first card of the last sets to find.
+         * @param to        - the index after the last card to search.
+         * @param ahead     - a bitmap over card ids holding at most cards[to - 1] (left that way once done).
+         */
+        CompletionCursor(int[] cards, int firstFrom, int firstTo, int to, long[] ahead) {
+            this.cards = cards;
+            this.firstTo = firstTo;
+            this.to = to;
+            this.ahead = ahead;
+            next[0] = firstFrom;
+            and[0] = -1L;
+        }
+
+        private void fillAhead(int from) {
+            for (int k = from; k < to; ++k)
+                ahead[cards[k] >>> 6] |= 1L << cards[k];
+        }
+
+        /**
+         * Finds the next set.
+         *
+         * @param set - an array of config.featureSize entries to write the sorted card ids of the set to.
+         * @return - true iff a set was found (false when the search is over).
+         */
+        boolean next(int[] set) {
+            while (depth >= 0) {
+                // leave room for the cards after this depth (including the completing one)
+                int bound = to - prefix + depth;
+                if (depth == 0) bound = Math.min(bound, firstTo);
+                int j = next[depth];
+                if (j >= bound) {
+                    --depth;
+                    continue;
+                }
+                next[depth] = j + 1;
+
+                int card = cards[j];
+                if (depth == prefix - 1) ahead[card >>> 6] &= ~(1L << card);
+
+                long word = packed[card];
+                long o = or[depth] | word, a = and[depth] & word, t = twice[depth] | (or[depth] & word);
+                if ((nonZeroLanes(o ^ a) & nonZeroLanes(t)) != 0) continue;
+                chosen[depth] = j;
+
+                if (depth < prefix - 1) {
+                    ++depth;
+                    or[depth] = o;
+                    and[depth] = a;
+                    twice[depth] = t;
+                    next[depth] = j + 1;
+                    if (depth == prefix - 1) fillAhead(j + 1);
+                    continue;
+                }
+
+                int last = unpack(completion(o, a));
+                if ((ahead[last >>> 6] & (1L << last)) != 0) {
+                    for (int d = 0; d < prefix; ++d)
+                        set[d] = cards[chosen[d]];
+                    set[prefix] = last;
+                    Arrays.sort(set);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Computes the packed word of the card that completes a set, given the or/and words of the other cards.
+     */
+    private long completion(long or, long and) {
+        long same = nonZeroLanes(and);
+        same |= same - (same >>> (config.featureSize - 1)); // spread the top bit to the whole lane
+        return and | (~or & (laneHigh | laneLow) & ~same);
+    }
+
+    /**
+     * Converts a packed word back to its card id.
+     */
+    private int unpack(long word) {
+        int card = 0;
+        for (int i = 0; i < config.featureCount; ++i)
+            card = card * config.featureSize + Long.numberOfTrailingZeros(word >>> (i * config.featureSize));
+        return card;
+    }
+
+    /**
+     * Finds sets with a fork/join search that splits the deck by the index of the first card of the sets.
+     * The workers stop taking new first cards once count sets were found between them, and the results are merged
+     * in order (searching the skipped first cards if needed), so the sets are the same as in a sequential search.
+     */
+    private List<int[]> findSetsInParallel(int[] cards, int count) {
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        List<int[]>[] setsByFirst = new List[Math.max(cards.length - config.featureSize + 1, 0)];
+        AtomicInteger found = new AtomicInteger();
+        int grain = Math.max(1, setsByFirst.length / (4 * ForkJoinPool.getCommonPoolParallelism()));
+        ForkJoinPool.commonPool().invoke(new FirstCardsTask(cards, 0, setsByFirst.length, grain, count, setsByFirst, found));
+
+        LinkedList<int[]> sets = new LinkedList<>();
+        for (int i = 0; i < setsByFirst.length; ++i) {
+            if (setsByFirst[i] == null) {
+                if (findSetsStartingAt(cards, i, cards.length, new long[(config.deckSize + 63) >>> 6], collectTo(sets, count)))
+                    break;
+                continue;
+            }
+            for (int[] set : setsByFirst[i]) {
+                sets.add(set);
+                if (sets.size() >= count) return sets;
+            }
         }
         return sets;
     }
 
+    /**
+     * Searches the sets starting at a range of first card indices (see findSetsInParallel).
+     */
+    private class FirstCardsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] cards;
+        private final int from, to, grain, count;
+        private final List<int[]>[] setsByFirst;
+        private final AtomicInteger found;
+
+        FirstCardsTask(int[] cards, int from, int to, int grain, int count, List<int[]>[] setsByFirst, AtomicInteger found) {
+            this.cards = cards;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.count = count;
+            this.setsByFirst = setsByFirst;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FirstCardsTask(cards, from, middle, grain, count, setsByFirst, found),
+                        new FirstCardsTask(cards, middle, to, grain, count, setsByFirst, found));
+                return;
+            }
+
+            long[] ahead = new long[(config.deckSize + 63) >>> 6];
+            for (int i = from; i < to && found.get() < count; ++i) {
+                List<int[]> sets = new ArrayList<>();
+                findSetsStartingAt(cards, i, cards.length, ahead, collectTo(sets, count));
+                setsByFirst[i] = sets;
+                found.addAndGet(sets.size());
+            }
+        }
+    }
+
+    @Override
+    public Stream<int[]> streamSets(List<Integer> deck) {
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        Spliterator<int[]> sets;
+        if (config.featureSize == 3) sets = new PairSpliterator(cards);
+        else if (completable()) sets = new CursorSpliterator(new CompletionCursor(cards, 0, cards.length, cards.length,
+                new long[(config.deckSize + 63) >>> 6]));
+        else sets = new CombinationSpliterator(cards);
+        return StreamSupport.stream(sets, false);
+    }
+
+    /**
+     * Lazily finds sets by completing pairs of cards (see findSetsStartingAt), stopping right after each set.
+     */
+    private class PairSpliterator extends Spliterators.AbstractSpliterator<int[]> {
+
+        private final int[] cards;
+        private final long[] ahead = new long[(config.deckSize + 63) >>> 6];
+        private int first = 0;
+        private int second = 0; // 0 until the bitmap is filled for the current first card
+
+        PairSpliterator(int[] cards) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            this.cards = cards;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            for (; first < cards.length - 2; ++first, second = 0) {
+                if (second == 0) {
+                    for (int k = first + 1; k < cards.length; ++k)
+                        ahead[cards[k] >>> 6] |= 1L << cards[k];
+                    second = first + 1;
+                }
+                while (second < cards.length - 1) {
+                    int card = cards[second++];
+                    ahead[card >>> 6] &= ~(1L << card);
+                    int third = thirdCard(cards[first], card);
+                    if ((ahead[third >>> 6] & (1L << third)) != 0) {
+                        int[] set = {cards[first], card, third};
+                        Arrays.sort(set);
+                        action.accept(set);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Lazily finds sets of more than 3 cards with a completion cursor.
+     */
+    private class CursorSpliterator extends Spliterators.AbstractSpliterator<int[]> {
+
+        private final CompletionCursor cursor;
+
+        CursorSpliterator(CompletionCursor cursor) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            int[] set = new int[config.featureSize];
+            if (!cursor.next(set)) return false;
+            action.accept(set);
+            return true;
+        }
+    }
+
+    /**
+     * Lazily finds sets by testing all the config.featureSize combinations of cards in lexicographic order
+     * (for decks that cannot be searched by completion).
+     */
+    private class CombinationSpliterator extends Spliterators.AbstractSpliterator<int[]> {
+
+        private final int[] cards;
+        private final int[] combination = new int[config.featureSize];
+
+        CombinationSpliterator(int[] cards) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            this.cards = cards;
+            for (int i = 0; i < combination.length; ++i)
+                combination[i] = i;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            int n = cards.length;
+            int r = combination.length;
+            while (combination[r - 1] < n) {
+                int[] set = new int[r];
+                for (int i = 0; i < r; ++i)
+                    set[i] = cards[combination[i]];
+                Arrays.sort(set);
+                boolean found = testSet(set);
+
+                // generate next combination in lexicographic order
+                int t = r - 1;
+                while (t != 0 && combination[t] == n - r + t) --t;
+                combination[t]++;
+                for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+
+                if (found) {
+                    action.accept(set);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     public void spin() {
         if (config.randomSpinMax <= 0) return;
         long cycles = ThreadLocalRandom.current().nextLong(config.randomSpinMin, config.randomSpinMax);
@@ -0,0 +1,211 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Runs a sample of the set tests and searches on a second (shadow) engine as well, and logs any mismatch between the
+ * engines along with the time each one took. The results of the primary engine are always the ones returned.
+ */
+public class UtilShadowDecorator implements Util {
+
+    private final Logger logger;
+    private final Config config;
+    private final Util util;
+    private final Util shadow;
+
+    public UtilShadowDecorator(Logger logger, Config config, Util util, Util shadow) {
+        this.logger = logger;
+        this.config = config;
+        this.util = util;
+        this.shadow = shadow;
+    }
+
+    private boolean sample() {
+        return ThreadLocalRandom.current().nextDouble() < config.shadowSampleRate;
+    }
+
+    /**
+     * Calls both engines, logs the timings and any mismatch, and returns the result of the primary engine.
+     */
+    private <T> T crossCheck(String call, Supplier<T> primary, Supplier<T> secondary, Supplier<String> args) {
+        long start = System.nanoTime();
+        T result = primary.get();
+        long primaryNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        T expected = secondary.get();
+        long shadowNanos = System.nanoTime() - start;
+
+        String timings = " (engine: " + primaryNanos / 1000 + "us, shadow: " + shadowNanos / 1000 + "us)";
+        if (!same(result, expected))
+            logger.severe("shadow mismatch in " + call + "(" + args.get() + "): engine returned " + describe(result)
+                    + " but shadow returned " + describe(expected) + timings);
+        else
+            logger.fine("shadow check of " + call + " passed" + timings);
+        return result;
+    }
+
+    private static boolean same(Object result, Object expected) {
+        if (result instanceof List && expected instanceof List) {
+            List<?> sets = (List<?>) result, expectedSets = (List<?>) expected;
+            if (sets.size() != expectedSets.size()) return false;
+            for (int i = 0; i < sets.size(); ++i)
+                if (!Arrays.equals((int[]) sets.get(i), (int[]) expectedSets.get(i))) return false;
+            return true;
+        }
+        return Arrays.deepEquals(new Object[]{result}, new Object[]{expected});
+    }
+
+    private static String describe(Object result) {
+        if (result instanceof List) {
+            StringBuilder sb = new StringBuilder("[");
+            for (Object set : (List<?>) result)
+                sb.append(sb.length() > 1 ? ", " : "").append(Arrays.toString((int[]) set));
+            return sb.append("]").toString();
+        }
+        if (result instanceof long[]) return Arrays.toString((long[]) result);
+        return String.valueOf(result);
+    }
+
+    @Override
+    public int[] cardToFeatures(int card) {
+        return util.cardToFeatures(card);
+    }
+
+    @Override
+    public int[] cardToFeatures(int card, int[] features) {
+        return util.cardToFeatures(card, features);
+    }
+
+    @Override
+    public int[][] cardsToFeatures(int[] cards) {
+        return util.cardsToFeatures(cards);
+    }
+
+    @Override
+    public int[][] cardsToFeatures(int[] cards, int[][] features) {
+        return util.cardsToFeatures(cards, features);
+    }
+
+    @Override
+    public boolean testSet(int[] cards) {
+        if (!sample()) return util.testSet(cards);
+        return crossCheck("testSet", () -> util.testSet(cards), () -> shadow.testSet(cards), () -> Arrays.toString(cards));
+    }
+
+    @Override
+    public boolean testSet(int first, int second, int third) {
+        if (!sample()) return util.testSet(first, second, third);
+        return crossCheck("testSet", () -> util.testSet(first, second, third), () -> shadow.testSet(first, second, third),
+                () -> first + ", " + second + ", " + third);
+    }
+
+    @Override
+    public void testSets(int[] triples, int count, long[] resultBits) {
+        if (!sample()) {
+            util.testSets(triples, count, resultBits);
+            return;
+        }
+        crossCheck("testSets", () -> {
+            util.testSets(triples, count, resultBits);
+            return Arrays.copyOf(resultBits, (count + 63) >>> 6);
+        }, () -> {
+            long[] expected = new long[(count + 63) >>> 6];
+            shadow.testSets(triples, count, expected);
+            return expected;
+        }, () -> Arrays.toString(Arrays.copyOf(triples, 3 * count)) + ", " + count);
+    }
+
+    @Override
+    public List<int[]> findSets(List<Integer> deck, int count) {
+        if (!sample()) return util.findSets(deck, count);
+        return crossCheck("findSets", () -> util.findSets(deck, count), () -> shadow.findSets(deck, count),
+                () -> deck + ", " + count);
+    }
+
+    /**
+     * The sets passed to the sink are recorded, and compared with as many sets from the shadow engine (or all of
+     * them if the sink did not stop the search).
+     */
+    @Override
+    public boolean findSets(int[] cards, int from, int to, SetSink sink) {
+        if (!sample()) return util.findSets(cards, from, to, sink);
+
+        boolean[] stopped = new boolean[1];
+        List<int[]> found = new ArrayList<>();
+        crossCheck("findSets", () -> {
+            stopped[0] = util.findSets(cards, from, to, recordTo(found, sink));
+            return found;
+        }, () -> {
+            List<int[]> sets = new ArrayList<>();
+            shadow.findSets(cards, from, to, UtilImpl.collectTo(sets, stopped[0] ? found.size() : Integer.MAX_VALUE));
+            return sets;
+        }, () -> Arrays.toString(Arrays.copyOfRange(cards, from, to)));
+        return stopped[0];
+    }
+
+    @Override
+    public boolean findSetsContaining(int card, int[] cards, SetSink sink) {
+        if (!sample()) return util.findSetsContaining(card, cards, sink);
+
+        boolean[] stopped = new boolean[1];
+        List<int[]> found = new ArrayList<>();
+        crossCheck("findSetsContaining", () -> {
+            stopped[0] = util.findSetsContaining(card, cards, recordTo(found, sink));
+            return sorted(found);
+        }, () -> {
+            List<int[]> sets = new ArrayList<>();
+            shadow.findSetsContaining(card, cards, UtilImpl.collectTo(sets, Integer.MAX_VALUE));
+            // the engines may find the sets in different orders, so a stopped search only has to find some of them
+            if (stopped[0]) sets.removeIf(set -> found.stream().noneMatch(other -> Arrays.equals(set, other)));
+            return sorted(sets);
+        }, () -> card + ", " + Arrays.toString(cards));
+        return stopped[0];
+    }
+
+    @Override
+    public long countSets(int[] cards, int len) {
+        if (!sample()) return util.countSets(cards, len);
+        return crossCheck("countSets", () -> util.countSets(cards, len), () -> shadow.countSets(cards, len),
+                () -> Arrays.toString(Arrays.copyOf(cards, len)));
+    }
+
+    private static List<int[]> sorted(List<int[]> sets) {
+        List<int[]> copy = new ArrayList<>(sets);
+        copy.sort((set, other) -> {
+            for (int i = 0; i < Math.min(set.length, other.length); ++i)
+                if (set[i] != other[i]) return Integer.compare(set[i], other[i]);
+            return Integer.compare(set.length, other.length);
+        });
+        return copy;
+    }
+
+    /**
+     * Returns a sink that records copies of the sets before passing them to another sink.
+     */
+    private static SetSink recordTo(List<int[]> sets, SetSink sink) {
+        return set -> {
+            sets.add(set.clone());
+            return sink.accept(set);
+        };
+    }
+
+    /**
+     * Streams are not cross-checked, since how much of them is consumed is up to the caller.
+     */
+    @Override
+    public Stream<int[]> streamSets(List<Integer> deck) {
+        return util.streamSets(deck);
+    }
+
+    @Override
+    public void spin() {
+        util.spin();
+    }
+}
@@ -0,0 +1,141 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+
+/**
+ * The claims the dealer takes out of the claim queue together, judged in the order they were made (ties by player
+ * id), so the earliest of the claims on the same cards always wins. A claim on a slot whose card was removed by a
+ * claim judged earlier in the batch lost the race, and is released without a penalty like a stale claim.
+ */
+class ClaimBatch {
+
+    /**
+     * The verdicts of the claims: the claim is a set and its cards are removed, the claim is not a set, or the claim
+     * lost the race or is stale and is released without a penalty.
+     */
+    enum Verdict {POINT, PENALTY, RELEASE}
+
+    /**
+     * Checks the claims of the batch against the table.
+     */
+    interface Referee {
+
+        /**
+         * @param player - the id of the claiming player.
+         * @return - true iff one of the cards of the claim was removed or replaced since the token was placed on it.
+         */
+        boolean isStale(int player);
+
+        /**
+         * @param player - the id of the claiming player.
+         * @return - true iff the cards of the claim are a legal set.
+         */
+        boolean isLegal(int player);
+    }
+
+    /**
+     * The claiming players, the System.nanoTime their claims were made at, and the slots of their tokens (bit per
+     * slot), in the first size entries.
+     */
+    private final int[] players;
+    private final long[] stamps;
+    private final long[][] slots;
+    private int size;
+
+    /**
+     * The slots whose cards were removed by the claims judged so far (bit per slot).
+     */
+    private final long[] removed;
+
+    /**
+     * @param players  - the number of players (at most one claim each).
+     * @param maxSlots - the number of slots on the table.
+     */
+    ClaimBatch(int players, int maxSlots) {
+        this.players = new int[players];
+        stamps = new long[players];
+        slots = new long[players][(maxSlots + 63) >>> 6];
+        removed = new long[(maxSlots + 63) >>> 6];
+    }
+
+    /**
+     * Starts a new batch with all the claims queued (called by the dealer).
+     *
+     * @return - the number of claims in the batch.
+     */
+    int drain(ClaimQueue claims) {
+        for (int i = 0; i < size; ++i)
+            Arrays.fill(slots[i], 0);
+        Arrays.fill(removed, 0);
+        size = claims.drain(players, stamps);
+        sort();
+        return size;
+    }
+
+    /**
+     * @return - the number of claims in the batch.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return - the id of the player of the i-th claim made.
+     */
+    int player(int i) {
+        return players[i];
+    }
+
+    /**
+     * Records a slot with a token of the i-th claim.
+     */
+    void addSlot(int i, int slot) {
+        slots[i][slot >>> 6] |= 1L << slot;
+    }
+
+    /**
+     * Judges the i-th claim, after all the claims made before it. If it is a set, its slots count as removed for the
+     * claims made after it.
+     *
+     * @param referee - checks the claim against the table, unless it lost the race.
+     * @return - the verdict of the claim.
+     */
+    Verdict judge(int i, Referee referee) {
+        if (overlaps(slots[i], removed) || referee.isStale(players[i]))
+            return Verdict.RELEASE;
+        if (!referee.isLegal(players[i]))
+            return Verdict.PENALTY;
+        for (int word = 0; word < removed.length; ++word)
+            removed[word] |= slots[i][word];
+        return Verdict.POINT;
+    }
+
+    /**
+     * Sorts the claims (with their slots) by the time they were made (compared by difference, as System.nanoTime may
+     * overflow), and by player id if made at the same time.
+     */
+    private void sort() {
+        for (int i = 1; i < size; ++i) {
+            int player = players[i];
+            long stamp = stamps[i];
+            long[] claimSlots = slots[i];
+            int j = i - 1;
+            while (j >= 0 && (stamps[j] - stamp > 0 || (stamps[j] == stamp && players[j] > player))) {
+                players[j + 1] = players[j];
+                stamps[j + 1] = stamps[j];
+                slots[j + 1] = slots[j];
+                --j;
+            }
+            players[j + 1] = player;
+            stamps[j + 1] = stamp;
+            slots[j + 1] = claimSlots;
+        }
+    }
+
+    private static boolean overlaps(long[] slots, long[] otherSlots) {
+        for (int i = 0; i < slots.length; ++i)
+            if ((slots[i] & otherSlots[i]) != 0)
+                return true;
+        return false;
+    }
+}
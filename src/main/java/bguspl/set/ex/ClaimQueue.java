@@ -0,0 +1,175 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * The claims of the players, in the order they were made, until the dealer checks them.
+ * The players add their claims without locking (a multi-producer single-consumer linked queue), and only the dealer
+ * takes them out. A flag per player tells in O(1) whether it has a claim pending, so every player has at most one
+ * claim at a time, and waits for its verdict on a monitor of its own. Every claim is stamped with the System.nanoTime
+ * it was made at, so the dealer can judge a batch of claims in the order they were made.
+ *
+ * @inv a player has a pending claim iff contains(player)
+ */
+class ClaimQueue {
+
+    private static final class Node {
+        final int player;
+        final long claim;
+        final long stamp;
+        volatile Node next;
+
+        Node(int player, long claim, long stamp) {
+            this.player = player;
+            this.claim = claim;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * The id of the pending claim of every player (0 if none): positive while the claim waits in the queue, and
+     * negative once the dealer took it out to check it. A queued node whose claim id is no longer the one pending
+     * (e.g. after remove) is skipped by drain.
+     */
+    private final AtomicLongArray pending;
+
+    /**
+     * The monitors the players wait on for the verdicts of their claims.
+     */
+    private final Object[] verdicts;
+
+    private final AtomicLong claims = new AtomicLong();
+
+    /**
+     * The last node added (by any player), and the last node taken out (only by the dealer).
+     */
+    private final AtomicReference<Node> tail;
+    private Node head;
+
+    /**
+     * The clock the claims are stamped with.
+     */
+    private final LongSupplier clock;
+
+    ClaimQueue(int players) {
+        this(players, System::nanoTime);
+    }
+
+    /**
+     * Constructor for testing.
+     *
+     * @param players - the number of players.
+     * @param clock   - the clock to stamp the claims with, instead of System.nanoTime.
+     */
+    ClaimQueue(int players, LongSupplier clock) {
+        this.clock = clock;
+        pending = new AtomicLongArray(players);
+        verdicts = new Object[players];
+        for (int player = 0; player < players; ++player)
+            verdicts[player] = new Object();
+        head = new Node(-1, 0, 0);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Adds a claim of a player to the end of the queue (called by the players).
+     *
+     * @param player - the id of the claiming player.
+     * @return - true iff the claim was added (i.e. the player had no claim pending).
+     */
+    boolean offer(int player) {
+        long stamp = clock.getAsLong();
+        long claim = claims.incrementAndGet();
+        if (!pending.compareAndSet(player, 0, claim)) return false;
+        Node node = new Node(player, claim, stamp);
+        tail.getAndSet(node).next = node;
+        return true;
+    }
+
+    /**
+     * @return - true iff the player has a claim that was not judged yet (queued or being checked).
+     */
+    boolean contains(int player) {
+        return pending.get(player) != 0;
+    }
+
+    /**
+     * @return - true iff no claims were added since the last drain (called by the dealer).
+     */
+    boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * Takes all the queued claims out of the queue, for the dealer to check them together (called by the dealer).
+     * The claims stay pending until the dealer calls release.
+     *
+     * @param players - an array of at least one entry per player, for the ids of the claiming players.
+     * @param stamps  - an array of at least one entry per player, for the System.nanoTime of the claims.
+     * @return - the number of claims taken out, in the order they were queued.
+     */
+    int drain(int[] players, long[] stamps) {
+        int count = 0;
+        for (Node node = take(); node != null; node = take()) {
+            players[count] = node.player;
+            stamps[count++] = node.stamp;
+        }
+        return count;
+    }
+
+    private Node take() {
+        for (Node next = head.next; next != null; next = head.next) {
+            head = next;
+            if (pending.compareAndSet(next.player, next.claim, -next.claim)) return next;
+        }
+        return null;
+    }
+
+    /**
+     * Withdraws the queued claim of a player, if it was not taken out of the queue yet (called by the dealer).
+     *
+     * @return - true iff a claim was withdrawn.
+     */
+    boolean remove(int player) {
+        long claim = pending.get(player);
+        if (claim <= 0 || !pending.compareAndSet(player, claim, 0)) return false;
+        signal(player);
+        return true;
+    }
+
+    /**
+     * Ends the claim of a player once it was judged, and wakes the player up (called by the dealer).
+     */
+    void release(int player) {
+        pending.set(player, 0);
+        signal(player);
+    }
+
+    /**
+     * Withdraws all the pending claims (called by the dealer).
+     */
+    void clear() {
+        for (int player = 0; player < pending.length(); ++player)
+            if (pending.getAndSet(player, 0) != 0)
+                signal(player);
+    }
+
+    /**
+     * Waits until the claim of a player is judged or withdrawn (called by the player).
+     */
+    void awaitVerdict(int player) throws InterruptedException {
+        synchronized (verdicts[player]) {
+            while (pending.get(player) != 0)
+                verdicts[player].wait();
+        }
+    }
+
+    private void signal(int player) {
+        synchronized (verdicts[player]) {
+            verdicts[player].notifyAll();
+        }
+    }
+}
@@ -1,15 +1,14 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.SetSink;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.Queue;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -29,9 +28,9 @@ public class Dealer implements Runnable {
     private final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The card ids that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final Deck deck;
 
     /**
      * True iff game should be terminated.
@@ -41,8 +40,35 @@ public class Dealer implements Runnable {
     // an array that holds the slots of the current set we are about to check 
     public int[] set;
 
-    // queue that holds the players who have sets 
-    public Queue<Player> playerSets;
+    // queue that holds the claims of the players who have sets (by player id)
+    public final ClaimQueue playerSets;
+
+    // the claims taken out of playerSets together, judged in the order they were made
+    private final ClaimBatch batch;
+
+    // checks the claims of the batch against the table
+    private final ClaimBatch.Referee referee= new ClaimBatch.Referee() {
+        @Override
+        public boolean isStale(int id) {
+            // a claim is stale if one of its cards was removed or replaced since the token was placed on it
+            Player player= players[id];
+            boolean staleClaim= false;
+            Iterator<Integer> it= player.getPlayerTokens().iterator();
+            while (it.hasNext()){
+                Integer playerslot=it.next();
+                if(table.getVersion(playerslot)!=player.getTokenVersion(playerslot)){
+                    it.remove();
+                    staleClaim=true;
+                }
+            }
+            return staleClaim;
+        }
+
+        @Override
+        public boolean isLegal(int id) {
+            return checkIfLegalSet(players[id].getPlayerTokens());
+        }
+    };
 
     /**
      * The time when the dealer needs to reshuffle the deck due to turn timeout.
@@ -63,12 +89,14 @@ public class Dealer implements Runnable {
         this.table = table;
         this.players = players;
         this.terminate=false;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        set= new int[3];
+        deck = new Deck(env.config.deckSize, new Random(env.config.deckSeed));
+        env.logger.info("deck seed " + env.config.deckSeed);
+        set= new int[env.config.maxClaimSize];
         for (int i=0; i<this.set.length; i++){
             this.set[i]=-1;
         }
-        playerSets= new LinkedList<>();
+        playerSets= new ClaimQueue(players.length);
+        batch= new ClaimBatch(players.length, env.config.maxTableSize);
         setFound= false;
         lockDealer = new Object();
         isTimeStart= false;
@@ -104,30 +132,58 @@ public class Dealer implements Runnable {
      */
     private void timerLoop() {
         reshuffleTime= System.currentTimeMillis()+env.config.turnTimeoutMillis;
+        reshuffleIfNoSet();
         while (!terminate && System.currentTimeMillis() < reshuffleTime) {
             sleepUntilWokenOrTimeout();
+            updateTimerDisplay(false);
+            isTimeStart= true;
+            removeCardsFromTable();
             if(setFound){
-                isTimeStart= false;
-                updateTimerDisplay(true);
-                isTimeStart= true;
+                // the turn starts over once a set is removed, before the new cards are checked for a set
                 reshuffleTime= System.currentTimeMillis()+env.config.turnTimeoutMillis;
                 setFound=false;
+                placeCardsOnTable();
+                isTimeStart= false;
+                updateTimerDisplay(!reshuffleIfNoSet());
+                isTimeStart= true;
             }
             else{
-                updateTimerDisplay(false);
-                isTimeStart= true;
+                placeCardsOnTable();
+                if(reshuffleIfNoSet()){
+                    updateTimerDisplay(false);
+                }
             }
-           removeCardsFromTable();
-           placeCardsOnTable();
         }
  }
 
+    /**
+     * Brings the reshuffle forward to config.noSetGraceMillis from now if there is no set on the table, since no
+     * claim can succeed until the cards are dealt again (unless config.noSetGraceMillis is negative).
+     *
+     * @return true iff the reshuffle was brought forward.
+     */
+    private boolean reshuffleIfNoSet() {
+        if(env.config.noSetGraceMillis<0 || hasSetOnTable()){
+            return false;
+        }
+        long graceTime= System.currentTimeMillis()+env.config.noSetGraceMillis;
+        if(graceTime<reshuffleTime){
+            env.logger.info("no set on the table, reshuffling in " + env.config.noSetGraceMillis + " ms");
+            reshuffleTime= graceTime;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Called when the game should be terminated.
      */
     public void terminate() {
         terminate= true;
         // continue implement the closing of the game 
+        synchronized(lockDealer){
+            lockDealer.notifyAll();
+        }
     }
 
     /**
@@ -136,23 +192,26 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        if (terminate) return true;
+        return !env.util.findSets(deck.cards(), 0, deck.size(), SetSink.ANY);
     }
     
     // helper function for keyPressed in Player class 
     public boolean checkIfLegalSet(Queue<Integer> playerTokens){
         synchronized(lockDealer){
-            int [] cards= new int [3];
+            // claims may hold any number of cards (e.g. with the projective rules), the rest of the set is unused
+            int [] cards= new int [playerTokens.size()];
+            Arrays.fill(this.set, -1);
             int count=0;
             Iterator<Integer> iterator = playerTokens.iterator();
-            while (iterator.hasNext()) {
+            while (iterator.hasNext() && count<cards.length) {
                 int slot= iterator.next();
                 this.set[count]=slot;
-                cards[count]=table.slotToCard[slot];
+                cards[count]=table.getCard(slot);
                 count++;
             }
             if(count!=0){
-                return env.util.testSet(cards);
+                return env.util.testSet(count==cards.length ? cards : Arrays.copyOf(cards, count));
             }
             else{
                 return false;
@@ -162,60 +221,46 @@ public class Dealer implements Runnable {
 
     /**
      * Checks cards should be removed from the table and removes them.
+     * The pending claims are judged in a batch, in the order they were made (ties by player id), so the earliest of
+     * the claims on the same cards always wins. The claims that overlap the slots of a set removed earlier in the
+     * batch lost the race and are released without a penalty, like the stale ones.
      */
     private void removeCardsFromTable() {
         // TODO implement
         // the cards shold be removed : one of the players found a set and then we remove it
-        while(!playerSets.isEmpty()){
-            Player player= playerSets.poll();
-            boolean cardIsNull= false;
-            Iterator<Integer> it= player.getPlayerTokens().iterator();
-            while (it.hasNext()){
-                Integer playerslot=it.next();
-                if(table.slotToCard[playerslot]==null){
-                    cardIsNull=true;
-                }
+        int count= batch.drain(playerSets);
+        for(int i=0; i<count; i++){
+            for(int slot : players[batch.player(i)].getPlayerTokens()){
+                batch.addSlot(i, slot);
             }
-            if(!cardIsNull){
-            boolean legalSet= checkIfLegalSet(player.getPlayerTokens());
-            if(legalSet){
-                for(int i=0;i<this.set.length ;i++){
-                    if(this.set[i] != -1 && table.slotToCard[this.set[i]] != null){
-                        Iterator<Player> iterator= table.tokenLists[this.set[i]].iterator();
-                        while(iterator.hasNext()){
-                            Player pl= iterator.next();
-                            if(playerSets.contains(pl)){
-                                playerSets.remove(pl);
-                            }
+        }
+
+        for(int i=0; i<count; i++){
+            int id= batch.player(i);
+            Player player= players[id];
+            switch(batch.judge(i, referee)){
+                case POINT:
+                    for(int j=0;j<this.set.length ;j++){
+                        if(this.set[j] != -1 && table.getCard(this.set[j]) != null){
+                            // the claims of the other players on this card are void
+                            removeTokens(this.set[j], table.removeCard(this.set[j]));
                         }
-                        table.removeCard(this.set[i]);
-                    }         
-                }  
-                player.setinpoint();
-                player.point();
-                player.resetTokens();
-                setFound= true;
-                synchronized(playerSets){
-                    try{
-                        playerSets.notifyAll();
                     }
-                    catch(IllegalMonitorStateException e){}
-                }
-            }
-            else{
-                player.setinpenalty();  
-                player.penalty();
-                synchronized(playerSets){
-                    try{
-                        playerSets.notifyAll();
-                    }
-                    catch(IllegalMonitorStateException e){}
-                }
-
+                    player.setinpoint();
+                    player.point();
+                    player.resetTokens();
+                    setFound= true;
+                    break;
+                case PENALTY:
+                    player.setinpenalty();
+                    player.penalty();
+                    break;
+                default:
+                    // lost the race (its tokens on the removed cards were already taken away with them) or stale
+                    break;
             }
+            playerSets.release(id);
         }
-        } 
-        
     }
 
 
@@ -224,31 +269,103 @@ public class Dealer implements Runnable {
      */
     private void placeCardsOnTable() {
         // TODO implement
+        // the cards of a set found among extra cards are not replaced: the extra cards take their slots instead
+        compactTable();
         if(deck.size()!=0){
-            Collections.shuffle(deck);// shuffeling the deck 
-            int i=0;
-            while(i<table.slotToCard.length ){
-                if(table.slotToCard[i]==null){
-                    table.placeCard(deck.remove(0), i); // place in the table randome cards from the deck
-                }
-                i++;
-             }
+            dealToEmptySlots();
+            // add featureSize cards at a time while there is no set on the table, instead of waiting for a reshuffle
+            while(deck.size()!=0 && !hasSetOnTable() && table.grow()){
+                dealToEmptySlots();
+            }
         }
+        table.hints();
     
     }
 
     /**
-     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     * Deals random cards from the deck to the empty slots in use, all at once.
+     */
+    private void dealToEmptySlots() {
+        int[] slots= new int[table.size()];
+        int count=0;
+        for(int slot=0; slot<table.size() && count<deck.size(); slot++){
+            if(table.getCard(slot)==null){
+                slots[count++]=slot;
+            }
+        }
+        if(count!=0){
+            int[] cards= new int[count];
+            deck.draw(cards, count);
+            table.placeCards(cards, Arrays.copyOf(slots, count));
+        }
+    }
+
+    /**
+     * Moves the cards in the extra slots (see Table.grow) to the empty slots before them, and takes the extra slots
+     * that are left empty out of use.
+     */
+    private void compactTable() {
+        int empty=0;
+        for(int slot=table.size()-1; slot>=env.config.tableSize; slot--){
+            if(table.getCard(slot)==null){
+                continue;
+            }
+            while(empty<slot && table.getCard(empty)!=null){
+                empty++;
+            }
+            if(empty==slot){
+                break;
+            }
+            removeTokens(slot, table.moveCard(slot, empty));
+        }
+        table.shrink();
+    }
+
+    /**
+     * @return true iff there is a legal set among the cards on the table.
+     */
+    private boolean hasSetOnTable() {
+        return table.countSets()>0;
+    }
+
+    /**
+     * Sleep until the next due event: a claim to check, the next countdown tick or the reshuffle time.
+     * The players offer their claims before notifying lockDealer, so a claim is never missed between the check of
+     * playerSets and the wait.
      */
     private void sleepUntilWokenOrTimeout() {
+        long wakeTime= nextTickTime();
         synchronized(lockDealer){
-        try {
-            lockDealer.wait(1000);
+            long now= System.currentTimeMillis();
+            while(!terminate && playerSets.isEmpty() && now<wakeTime){
+                try {
+                    lockDealer.wait(wakeTime-now);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                now= System.currentTimeMillis();
             }
-         catch (InterruptedException e) {}
         }
     }
 
+    /**
+     * @return the time of the next change of the countdown display: every config.countdownTickMillis before
+     * the warning, and every config.countdownWarningTickMillis during it (counted back from reshuffleTime).
+     */
+    private long nextTickTime() {
+        long now= System.currentTimeMillis();
+        long timeLeft= reshuffleTime-now;
+        if(timeLeft<=0){
+            return now;
+        }
+        if(timeLeft<=env.config.turnTimeoutWarningMillis){
+            return reshuffleTime-((timeLeft-1)/env.config.countdownWarningTickMillis)*env.config.countdownWarningTickMillis;
+        }
+        long nextTick= reshuffleTime-((timeLeft-1)/env.config.countdownTickMillis)*env.config.countdownTickMillis;
+        return Math.min(nextTick, reshuffleTime-env.config.turnTimeoutWarningMillis);
+    }
+
     /**
      * Reset and/or update the countdown and the countdown display.
      */
@@ -276,13 +393,25 @@ public class Dealer implements Runnable {
      */
     private void removeAllCardsFromTable() {
         // TODO implement
-        for (int slot=0;slot<table.slotToCard.length;slot++){
-            Integer card = table.slotToCard[slot];
-            if (card != null) {
-                deck.add(table.slotToCard[slot]);
-                table.removeCard(slot);
-            }
+        for (int card : table.clear()) {
+            deck.add(card);
         }
+        // the pending claims were all on the cards that were just removed
+        playerSets.clear();
+    }
+
+    /**
+     * Removes the tokens that were on a removed card from the players, along with their pending claims.
+     * @param slot   - the slot the card was removed from.
+     * @param tokens - the tokens that were on the card (bit i for player i).
+     */
+    private void removeTokens(int slot, int tokens) {
+        if (tokens == 0) return;
+        for (Player player : players)
+            if ((tokens & (1 << player.id)) != 0) {
+                player.getPlayerTokens().remove(slot);
+                playerSets.remove(player.id);
+            }
     }
 
     /**
@@ -0,0 +1,81 @@
+package bguspl.set.ex;
+
+import java.util.Random;
+
+/**
+ * The cards left in the dealer's deck, in no particular order.
+ * Drawing a card picks a random one and swaps the last card into its place (one step of a Fisher-Yates shuffle), so
+ * drawing k cards costs O(k) and never shuffles the whole deck, and returning a card appends it.
+ */
+class Deck {
+
+    /**
+     * The card ids in the deck are the first size entries.
+     */
+    private final int[] cards;
+    private int size;
+    private final Random random;
+
+    /**
+     * @param deckSize - the number of cards of a full deck (card ids 0 to deckSize - 1).
+     * @param random   - the source of the draws.
+     */
+    Deck(int deckSize, Random random) {
+        cards = new int[deckSize];
+        for (int card = 0; card < deckSize; ++card)
+            cards[card] = card;
+        size = deckSize;
+        this.random = random;
+    }
+
+    /**
+     * @return - the number of cards in the deck.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return - the cards in the deck in its first size() entries (not to be modified).
+     */
+    int[] cards() {
+        return cards;
+    }
+
+    /**
+     * Takes a random card out of the deck.
+     *
+     * @return - the card id drawn.
+     * @pre - size() > 0.
+     */
+    int draw() {
+        int i = random.nextInt(size);
+        int card = cards[i];
+        cards[i] = cards[--size];
+        cards[size] = card;
+        return card;
+    }
+
+    /**
+     * Takes random cards out of the deck.
+     *
+     * @param drawn - the array to write the card ids drawn into.
+     * @param count - the number of cards to draw.
+     * @return - the number of cards drawn (count, or size() if the deck has less cards).
+     */
+    int draw(int[] drawn, int count) {
+        count = Math.min(count, size);
+        for (int i = 0; i < count; ++i)
+            drawn[i] = draw();
+        return count;
+    }
+
+    /**
+     * Returns a card to the deck.
+     *
+     * @param card - the card id to return (that is not in the deck).
+     */
+    void add(int card) {
+        cards[size++] = card;
+    }
+}
@@ -20,6 +20,11 @@ import bguspl.set.Env;
  */
 public class Player implements Runnable {
 
+    /**
+     * The key press that submits the tokens placed as a claim, instead of a slot (with claims of any size).
+     */
+    public static final int SUBMIT = -1;
+
     /**
      * The game environment object.
      */
@@ -66,6 +71,9 @@ public class Player implements Runnable {
     // each player will hold list of the slots he put the tokens on 
     private BlockingQueue<Integer> playerTokens;
 
+    // the version of the slot (see Table.getVersion) each token was placed at, written before the token is queued
+    private final int[] tokenVersions;
+
     // each player have a queue of the last 3 actions 
     private BlockingQueue<Integer> playerActions;
 
@@ -91,8 +99,9 @@ public class Player implements Runnable {
         this.human = human;
         this.terminate=false;
         this.dealer= dealer;// we add this line 
-        this.playerTokens= new ArrayBlockingQueue<>(3);// we add this line
+        this.playerTokens= new ArrayBlockingQueue<>(env.config.maxClaimSize);// we add this line
         this.playerActions= new ArrayBlockingQueue<>(3);// we add this line
+        this.tokenVersions= new int[env.config.maxTableSize];
         this.inpenalty = false; 
         this.inpoint = false; 
     }
@@ -118,12 +127,20 @@ public class Player implements Runnable {
                             aiThread.notifyAll();
                         }
                     }
-                    if (!(dealer.playerSets.contains(this)) && dealer.isTimeStart && table.slotToCard[slot]!= null){
-                        if(table.removeToken(this.id, slot)){
-                            removeTokenFromPlayerSlots(slot);
+                    if (!dealer.playerSets.contains(id) && dealer.isTimeStart){
+                        if(slot==SUBMIT){
+                            // with claims of any size, the tokens placed so far are the claim
+                            if(env.config.claimSize==0 && !playerTokens.isEmpty()){
+                                claimSet();
+                            }
                         }
-                        else{
-                            addTokentoPlayerSlots(slot);
+                        else if(table.getCard(slot)!= null){
+                            if(table.removeToken(this.id, slot)){
+                                removeTokenFromPlayerSlots(slot);
+                            }
+                            else{
+                                addTokentoPlayerSlots(slot);
+                            }
                         }
                     }
                 }
@@ -144,8 +161,10 @@ public class Player implements Runnable {
             while (!terminate) {
                 if(!inpenalty && !inpoint){
                     Random random= new Random();
-                    int randomSlot= random.nextInt(12);
-                    keyPressed(randomSlot);
+                    // with claims of any size, the submit key is pressed like one more slot
+                    int keys= table.size();
+                    int randomSlot= random.nextInt(env.config.claimSize==0 ? keys+1 : keys);
+                    keyPressed(randomSlot==keys ? SUBMIT : randomSlot);
                     if(playerActions.size()==3){
                         synchronized(aiThread){
                         try {
@@ -178,6 +197,14 @@ public class Player implements Runnable {
         return playerTokens;
     }
 
+    /**
+     * Returns the version of the slot a token of the player was placed at (see Table.getVersion).
+     * @param slot - a slot with a token of the player.
+     */
+    public int getTokenVersion(int slot){
+        return tokenVersions[slot];
+    }
+
     public int getId(){
         return id;
     }
@@ -211,38 +238,41 @@ public class Player implements Runnable {
 
 
     public void addTokentoPlayerSlots(int slot){
-            if (playerTokens.size()<3){
-                table.placeToken(this.id, slot);
+            int version= playerTokens.size()<env.config.maxClaimSize ? table.placeToken(this.id, slot) : -1;
+            if (version != -1){
+                tokenVersions[slot]= version;
                 playerTokens.add(slot);
-                table.addPlayerToTokenList(this, slot);
                 String s="the player  "+this.id+" tokens are ";
                     Iterator it= playerTokens.iterator();
                     while(it.hasNext()){
                         s= s+" ,"+ it.next();
                     }
                     System.out.println(s);
-                if (playerTokens.size()==3){
-                    dealer.playerSets.offer(this);
-                    synchronized(dealer.lockDealer){
-                        try {
-                            dealer.lockDealer.notifyAll();
-                            }
-                         catch (IllegalMonitorStateException e) {}
-                    }
-                    synchronized(dealer.playerSets){
-                        try{
-                            while(dealer.playerSets.contains(this)){
-                                dealer.playerSets.wait();
-                            }
-                        }
-                        catch(InterruptedException e){}
-                    }
-                    updateFreeze();
-                    inpoint = false;
-                    inpenalty = false;
+                if (playerTokens.size()==env.config.claimSize){
+                    claimSet();
             }
         }
     }
+
+    /**
+     * Claims the cards of the tokens of the player as a set, and waits for the verdict of the dealer.
+     */
+    private void claimSet(){
+        dealer.playerSets.offer(id);
+        synchronized(dealer.lockDealer){
+            try {
+                dealer.lockDealer.notifyAll();
+                }
+             catch (IllegalMonitorStateException e) {}
+        }
+        try{
+            dealer.playerSets.awaitVerdict(id);
+        }
+        catch(InterruptedException e){}
+        updateFreeze();
+        inpoint = false;
+        inpenalty = false;
+    }
     
     private void updateFreeze(){
         try {
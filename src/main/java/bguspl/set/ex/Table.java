@@ -1,60 +1,139 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.SetSink;
 
-import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Objects;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * This class contains the data that is visible to the player.
  *
- * @inv slotToCard[x] == y iff cardToSlot[y] == x
+ * @inv getCard(x) == y iff getSlot(y) == x
  */
 public class Table {
 
+    /**
+     * The layout of a slot word: the tokens of the players in the low 16 bits (bit i for player i), the card id + 1 in
+     * the next 16 bits (0 if none), and a version in the high 31 bits that increases whenever a card is placed or
+     * removed. The version is a non-negative int that wraps around to 0 only after 2^31 changes of the slot, so a
+     * stale claim passes for a fresh one only if its slot changed a multiple of 2^31 times while the claim waited.
+     */
+    static final int MAX_PLAYERS = 16;
+    private static final int CARD_SHIFT = 16;
+    private static final long TOKENS_MASK = 0xFFFFL;
+    private static final long CARD_MASK = 0xFFFFL << CARD_SHIFT;
+    private static final int VERSION_SHIFT = 33;
+
+    /**
+     * The number of times snapshot collects the slots again before settling for a view that is only consistent
+     * per slot.
+     */
+    private static final int SNAPSHOT_ATTEMPTS = 8;
+
+    /**
+     * The minimal time between two printouts of the hints, however often they are requested.
+     */
+    private static final long HINTS_INTERVAL_MILLIS = 1000;
+
     /**
      * The game environment object.
      */
     private final Env env;
 
     /**
-     * Mapping between a slot and the card placed in it (null if none).
+     * The state of every slot, in the layout above. Token changes are made with a compare-and-set of the slot word,
+     * so players never block each other, and a single read of a slot gives its card and tokens at the same moment.
+     */
+    private final AtomicLongArray slots;
+
+    /**
+     * The slot + 1 of every card (0 if none). Only the dealer places and removes cards, and it publishes the card
+     * here before placing it in its slot (and removes it from its slot before clearing it here).
      */
-    protected final Integer[] slotToCard; // card per slot (if any)
+    private final AtomicIntegerArray cardToSlot;
 
     /**
-     * + none).
+     * A sequence lock over the cards of the table: it is odd while the dealer changes cards, and advances by two with
+     * every change (of one card or of a whole deal). Only the dealer writes it, so the players never contend on it.
      */
-    protected final Integer[] cardToSlot; // slot per card (if any)
+    private final AtomicLong cardChanges = new AtomicLong();
 
-    // we add an array of lists that will kept the id of the player that placed the token on the card in the given slot
-    protected List<Player>[] tokenLists;
+    /**
+     * The number of slots in use: config.tableSize, plus the extra slots added by grow (only the dealer changes it).
+     */
+    private volatile int size;
 
-    private Object [] objectSlot ;
+    /**
+     * The number of cards on the table, and the number of sets among them. Only the dealer changes them, within
+     * the card changes they follow (see cardChanges), and only by the sets that include the cards it places or
+     * removes, so reading them never scans the table.
+     */
+    private volatile int cardCount;
+    private volatile long setCount;
+
+    /**
+     * The sets on the table, when config.hints is on (null otherwise). Like the counts, they are updated by the sets
+     * that include the cards placed or removed, and they are printed by the hints thread, not by the dealer.
+     */
+    private final Set<int[]> hintSets;
+    private final ScheduledExecutorService hintPrinter;
+    private final AtomicBoolean hintsRequested = new AtomicBoolean();
+    private volatile long lastHintsNanos;
+    private volatile long printedChanges = -1;
 
     /**
      * Constructor for testing.
      *
      * @param env        - the game environment objects.
-     * @param slotToCard - mapping between a slot and the card placed in it (null if none).
-     * @param cardToSlot - mapping between a card and the slot it is in (null if none).
+     * @param slotToCard - the cards to start with in each slot (null if none).
+     * @param cardToSlot - the slots of the cards to start with (null if none).
      */
     public Table(Env env, Integer[] slotToCard, Integer[] cardToSlot) {
 
+        if (env.config.players > MAX_PLAYERS)
+            throw new IllegalArgumentException("a table holds the tokens of at most " + MAX_PLAYERS + " players");
+        if (env.config.deckSize > CARD_MASK >>> CARD_SHIFT)
+            throw new IllegalArgumentException(
+                    "a table holds cards of decks of at most " + (CARD_MASK >>> CARD_SHIFT) + " cards");
+
         this.env = env;
-        this.slotToCard = slotToCard;
-        this.cardToSlot = cardToSlot;
-        this.tokenLists= new ArrayList[env.config.tableSize];
-        this.objectSlot = new ArrayList [env.config.tableSize];
-        for (int i = 0; i < tokenLists.length; i++) {
-            tokenLists[i] = new ArrayList<>();
-            objectSlot[i] =  new ArrayList<>();
+        this.size = Math.min(slotToCard.length, env.config.tableSize);
+        this.slots = new AtomicLongArray(Math.max(slotToCard.length, env.config.maxTableSize));
+        this.cardToSlot = new AtomicIntegerArray(cardToSlot.length);
+        for (int slot = 0; slot < slotToCard.length; ++slot)
+            if (slotToCard[slot] != null) {
+                slots.set(slot, (long) (slotToCard[slot] + 1) << CARD_SHIFT);
+                this.cardToSlot.set(slotToCard[slot], slot + 1);
+            }
+        int[] cards = new int[slots.length()];
+        cardCount = cards(cards);
+        setCount = env.util.countSets(cards, cardCount);
+
+        if (env.config.hints) {
+            hintSets = ConcurrentHashMap.newKeySet();
+            env.util.findSets(cards, 0, cardCount, set -> {
+                hintSets.add(set.clone());
+                return true;
+            });
+            hintPrinter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "table-hints");
+                thread.setDaemon(true);
+                return thread;
+            });
+            lastHintsNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(HINTS_INTERVAL_MILLIS);
+        } else {
+            hintSets = null;
+            hintPrinter = null;
         }
     }
 
@@ -68,17 +147,240 @@ public class Table {
         this(env, new Integer[env.config.tableSize], new Integer[env.config.deckSize]);
     }
 
+    private static int card(long word) {
+        return (int) ((word & CARD_MASK) >>> CARD_SHIFT) - 1;
+    }
+
+    private static int tokens(long word) {
+        return (int) (word & TOKENS_MASK);
+    }
+
+    static int version(long word) {
+        return (int) (word >>> VERSION_SHIFT);
+    }
+
+    /**
+     * Returns a word with the version of another word advanced by one (back to 0 after Integer.MAX_VALUE), and no
+     * card or tokens.
+     */
+    static long nextVersion(long word) {
+        return (version(word) + 1L) << VERSION_SHIFT;
+    }
+
+    /**
+     * An immutable view of the cards and tokens of the whole table at one moment.
+     */
+    public static final class Snapshot {
+
+        private final long[] words;
+        private final long sets;
+
+        private Snapshot(long[] words, long sets) {
+            this.words = words;
+            this.sets = sets;
+        }
+
+        /**
+         * @return - the number of slots of the table.
+         */
+        public int size() {
+            return words.length;
+        }
+
+        /**
+         * @return - the card id in the slot, or null if the slot was empty.
+         */
+        public Integer getCard(int slot) {
+            int card = card(words[slot]);
+            return card < 0 ? null : card;
+        }
+
+        /**
+         * @return - the slot the card was in, or -1 if it was not on the table.
+         */
+        public int getSlot(int card) {
+            for (int slot = 0; slot < words.length; ++slot)
+                if (card(words[slot]) == card)
+                    return slot;
+            return -1;
+        }
+
+        /**
+         * @return - the version of the slot (see Table.getVersion).
+         */
+        public int getVersion(int slot) {
+            return version(words[slot]);
+        }
+
+        /**
+         * @return - true iff the player had a token on the slot.
+         */
+        public boolean hasToken(int player, int slot) {
+            return (tokens(words[slot]) & (1 << player)) != 0;
+        }
+
+        /**
+         * @return - the number of cards that were on the table.
+         */
+        public int countCards() {
+            int cards = 0;
+            for (long word : words)
+                if ((word & CARD_MASK) != 0)
+                    ++cards;
+            return cards;
+        }
+
+        /**
+         * @return - the number of sets among the cards that were on the table.
+         */
+        public long countSets() {
+            return sets;
+        }
+
+        /**
+         * Writes the cards that were on the table into an array, in the order of their slots.
+         *
+         * @param cards - an array of at least size() entries.
+         * @return - the number of cards written.
+         */
+        public int getCards(int[] cards) {
+            int n = 0;
+            for (long word : words)
+                if ((word & CARD_MASK) != 0)
+                    cards[n++] = card(word);
+            return n;
+        }
+    }
+
+    /**
+     * Returns a consistent view of the whole table without blocking its writers.
+     * The slots are collected while no cards change (see cardChanges), so the cards are either all from before a
+     * deal or all from after it, and until two collects in a row are the same, so no token moved in between. If the
+     * players keep moving tokens during SNAPSHOT_ATTEMPTS collects, the last collect is returned, in which the
+     * cards are still consistent and the tokens are consistent for each slot.
+     *
+     * @return - an immutable snapshot of the cards and tokens on the table.
+     */
+    public Snapshot snapshot() {
+        long[] words = new long[slots.length()];
+        long[] previous = null;
+        for (int attempt = 1; ; ++attempt) {
+            long changes = cardChanges.get();
+            if ((changes & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            for (int slot = 0; slot < words.length; ++slot)
+                words[slot] = slots.get(slot);
+            long sets = setCount;
+            if (cardChanges.get() != changes) continue;
+
+            if (attempt >= SNAPSHOT_ATTEMPTS || Arrays.equals(words, previous)) return new Snapshot(words, sets);
+            long[] swap = previous == null ? new long[words.length] : previous;
+            previous = words;
+            words = swap;
+        }
+    }
+
     /**
      * This method prints all possible legal sets of cards that are currently on the table.
+     * The sets are printed by the hints thread, at most once every HINTS_INTERVAL_MILLIS (requests in between are
+     * served by a single printout), so the caller never waits for them. Does nothing unless config.hints is on, or
+     * if the cards did not change since the last printout.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
-            StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
-            int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
-        });
+        if (hintPrinter == null || cardChanges.get() == printedChanges || !hintsRequested.compareAndSet(false, true))
+            return;
+        long delayNanos = lastHintsNanos + TimeUnit.MILLISECONDS.toNanos(HINTS_INTERVAL_MILLIS) - System.nanoTime();
+        hintPrinter.schedule(this::printHints, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Prints the cached sets whose cards are all in a snapshot of the table (the cache may be in the middle of a
+     * change, so only sets that were on the table together are printed).
+     */
+    private void printHints() {
+        hintsRequested.set(false);
+        lastHintsNanos = System.nanoTime();
+        printedChanges = cardChanges.get();
+
+        Snapshot snapshot = snapshot();
+        int[] cardSlots = new int[env.config.deckSize];
+        Arrays.fill(cardSlots, -1);
+        for (int slot = 0; slot < snapshot.size(); ++slot) {
+            int card = card(snapshot.words[slot]);
+            if (card >= 0) cardSlots[card] = slot;
+        }
+
+        StringBuilder out = new StringBuilder();
+        int[][] features = new int[0][];
+        for (int[] set : hintSets) {
+            int[] setSlots = new int[set.length];
+            for (int i = 0; i < set.length; ++i)
+                setSlots[i] = cardSlots[set[i]];
+            Arrays.sort(setSlots);
+            if (setSlots[0] < 0) continue;
+
+            if (features.length != set.length) features = new int[set.length][env.config.featureCount];
+            env.util.cardsToFeatures(set, features);
+            out.append("Hint: Set found: slots: ").append(Arrays.toString(setSlots))
+                    .append(" features: ").append(Arrays.deepToString(features)).append(System.lineSeparator());
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * For testing.
+     *
+     * @return - the sets cached for the hints, each as its sorted card ids (empty unless config.hints is on).
+     */
+    Set<String> hintSets() {
+        Set<String> sets = new HashSet<>();
+        if (hintSets != null)
+            for (int[] set : hintSets) {
+                int[] cards = set.clone();
+                Arrays.sort(cards);
+                sets.add(Arrays.toString(cards));
+            }
+        return sets;
+    }
+
+    /**
+     * Returns the number of slots in use, i.e. the slots that may hold cards.
+     *
+     * @return - config.tableSize, plus the extra slots added by grow.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds config.featureSize empty slots after the slots in use (e.g. when there is no set on the table).
+     *
+     * @return - true iff the slots were added (i.e. the table had less than config.maxTableSize slots in use).
+     */
+    public boolean grow() {
+        if (size + env.config.featureSize > slots.length()) return false;
+        size += env.config.featureSize;
+        return true;
+    }
+
+    /**
+     * Takes the extra slots at the end of the table out of use, config.featureSize at a time, while they are empty.
+     *
+     * @return - the number of slots in use.
+     */
+    public int shrink() {
+        int newSize = size;
+        while (newSize - env.config.featureSize >= env.config.tableSize) {
+            boolean empty = true;
+            for (int slot = newSize - env.config.featureSize; slot < newSize; ++slot)
+                empty &= (slots.get(slot) & CARD_MASK) == 0;
+            if (!empty) break;
+            newSize -= env.config.featureSize;
+        }
+        size = newSize;
+        return newSize;
     }
 
     /**
@@ -87,11 +389,98 @@ public class Table {
      * @return - the number of cards on the table.
      */
     public int countCards() {
-        int cards = 0;
-        for (Integer card : slotToCard)
-            if (card != null)
-                ++cards;
-        return cards;
+        return cardCount;
+    }
+
+    /**
+     * Count the number of legal sets among the cards currently on the table.
+     *
+     * @return - the number of sets on the table (0 iff there is no set on the table).
+     */
+    public long countSets() {
+        return setCount;
+    }
+
+    /**
+     * Writes the cards on the table into an array, in the order of their slots.
+     *
+     * @return - the number of cards written.
+     */
+    private int cards(int[] cards) {
+        int n = 0;
+        for (int slot = 0; slot < slots.length(); ++slot) {
+            long word = slots.get(slot);
+            if ((word & CARD_MASK) != 0)
+                cards[n++] = card(word);
+        }
+        return n;
+    }
+
+    /**
+     * Counts the sets that a card forms with the other cards on the table (i.e. the sets that placing the card adds,
+     * or that removing it takes away), and adds them to the hint sets or removes them from there respectively.
+     */
+    private long countSetsWith(int card, boolean placed) {
+        int[] cards = new int[slots.length()];
+        int n = cards(cards);
+        long[] count = {0};
+        boolean record = placed && hintSets != null;
+        env.util.findSetsContaining(card, Arrays.copyOf(cards, n), set -> {
+            ++count[0];
+            if (record) hintSets.add(set.clone());
+            return true;
+        });
+        if (!placed && hintSets != null)
+            hintSets.removeIf(set -> {
+                for (int other : set)
+                    if (other == card) return true;
+                return false;
+            });
+        return count[0];
+    }
+
+    /**
+     * Returns the card in a grid slot.
+     *
+     * @param slot - the slot to look at.
+     * @return - the card id in the slot, or null if the slot is empty.
+     */
+    public Integer getCard(int slot) {
+        int card = card(slots.get(slot));
+        return card < 0 ? null : card;
+    }
+
+    /**
+     * Returns the slot of a card.
+     *
+     * @param card - the card id to look for.
+     * @return - the slot the card is in, or null if the card is not on the table.
+     */
+    public Integer getSlot(int card) {
+        int slot = cardToSlot.get(card) - 1;
+        return slot < 0 ? null : slot;
+    }
+
+    /**
+     * Returns the version of a grid slot, which changes whenever a card is placed in it or removed from it.
+     * A claim is stale iff the version of one of its slots differs from the one its token was placed at.
+     *
+     * @param slot - the slot to look at.
+     * @return - the version of the slot.
+     */
+    public int getVersion(int slot) {
+        return version(slots.get(slot));
+    }
+
+    /**
+     * Checks whether a player has a token on a grid slot.
+     *
+     * @param player - the player the token belongs to.
+     * @param slot   - the slot to look at.
+     * @return - true iff the player has a token on the slot.
+     */
+    public boolean hasToken(int player, int slot) {
+        return (tokens(slots.get(slot)) & (1 << player)) != 0;
     }
 
     /**
@@ -102,67 +491,149 @@ public class Table {
      * @post - the card placed is on the table, in the assigned slot.
      */
     public void placeCard(int card, int slot) {
-        synchronized (objectSlot[slot]){
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
-            System.out.println("Daniel add card the slot- " +slot+" is locked");
-            cardToSlot[card] = slot;
-            slotToCard[slot] = card;
-            env.ui.placeCard(card, slot);
-
-        // TODO implement
-    }
-    System.out.println("Daniel add card the slot- " +slot+" is umlocked");
-}
+        cardChanges.incrementAndGet();
+        place(card, slot);
+        cardChanges.incrementAndGet();
+        env.ui.placeCard(card, slot);
+    }
 
     /**
-     * Removes a card from a grid slot on the table.
-     * @param slot - the slot from which to remove the card.
+     * Places cards on the table in grid slots, as a single change (see snapshot).
+     * @param cards - the card ids to place.
+     * @param slots - the slots in which to place the cards (respectively).
+     *
+     * @post - the cards placed are on the table, in their assigned slots.
      */
-    public void  removeCard(int slot) {
-        synchronized (objectSlot[slot]){
-            System.out.println("Daniel remove card the slot- " +slot+" is locked");
-            try {
-                Thread.sleep(env.config.tableDelayMillis);
-            } catch (InterruptedException ignored) {}
-            Integer card = slotToCard[slot];
-            if (card != null) {
-                Iterator<Player> it=tokenLists[slot].iterator();
-                while(it.hasNext()){
-                    Player player= it.next();
-                    player.getPlayerTokens().remove(slot);
-                }
-                slotToCard[slot]= null;
-                cardToSlot[card]= null;
-                tokenLists[slot].clear();
-                env.ui.removeTokens(slot);
-                env.ui.removeCard(slot);
+    public void placeCards(int[] cards, int[] slots) {
+        cardChanges.incrementAndGet();
+        for (int i = 0; i < cards.length; ++i)
+            place(cards[i], slots[i]);
+        cardChanges.incrementAndGet();
+        env.ui.placeCards(cards, slots);
+    }
+
+    private void place(int card, int slot) {
+        int replaced = card(slots.get(slot));
+        if (replaced != card) forget(slot);
+
+        cardToSlot.set(card, slot + 1);
+        long word;
+        do {
+            word = slots.get(slot);
+        } while (!slots.compareAndSet(slot, word, nextVersion(word) | (long) (card + 1) << CARD_SHIFT));
+        if (replaced >= 0 && replaced != card) cardToSlot.compareAndSet(replaced, slot + 1, 0);
+
+        if (replaced != card) {
+            cardCount++;
+            setCount += countSetsWith(card, true);
         }
     }
-    System.out.println("Daniel remove card the slot- " +slot+" is umlocked");
-    // TODO implement
+
+    /**
+     * Takes the card in a slot (if any) out of the card and set counts, before it is removed or replaced.
+     */
+    private void forget(int slot) {
+        int card = card(slots.get(slot));
+        if (card < 0) return;
+        setCount -= countSetsWith(card, false);
+        cardCount--;
+    }
+
+    /**
+     * Removes a card from a grid slot on the table, along with all the tokens on it.
+     * @param slot - the slot from which to remove the card.
+     * @return     - the tokens that were on the card (bit i for player i), 0 if there was no card.
+     */
+    public int removeCard(int slot) {
+        cardChanges.incrementAndGet();
+        forget(slot);
+        long word = remove(slot);
+        cardChanges.incrementAndGet();
+        if ((word & CARD_MASK) == 0) return 0;
+        env.ui.removeTokens(slot);
+        env.ui.removeCard(slot);
+        return tokens(word);
     }
 
+    /**
+     * Moves a card from one grid slot to another, empty one, as a single change (see snapshot).
+     * The tokens on the card are removed, since it is a different card for the claims on the new slot.
+     * @param from - the slot of the card.
+     * @param to   - the empty slot to move the card to.
+     * @return     - the tokens that were on the card (bit i for player i), 0 if there was no card.
+     */
+    public int moveCard(int from, int to) {
+        cardChanges.incrementAndGet();
+        forget(from);
+        long word = remove(from);
+        if ((word & CARD_MASK) != 0) place(card(word), to);
+        cardChanges.incrementAndGet();
+        if ((word & CARD_MASK) == 0) return 0;
+        env.ui.removeTokens(from);
+        env.ui.removeCard(from);
+        env.ui.placeCard(card(word), to);
+        return tokens(word);
+    }
+
+    /**
+     * Removes all the cards and tokens from the table, as a single change (see snapshot), and takes the extra slots
+     * out of use.
+     * @return - the card ids that were on the table, in the order of their slots.
+     */
+    public int[] clear() {
+        int[] cards = new int[slots.length()];
+        int[] removedSlots = new int[slots.length()];
+        int count = 0;
+        cardChanges.incrementAndGet();
+        for (int slot = 0; slot < slots.length(); ++slot) {
+            long word = remove(slot);
+            if ((word & CARD_MASK) != 0) {
+                cards[count] = card(word);
+                removedSlots[count++] = slot;
+            }
+        }
+        size = env.config.tableSize;
+        cardCount = 0;
+        setCount = 0;
+        if (hintSets != null) hintSets.clear();
+        cardChanges.incrementAndGet();
+        env.ui.removeTokens();
+        env.ui.removeCards(Arrays.copyOf(removedSlots, count));
+        return Arrays.copyOf(cards, count);
+    }
+
+    /**
+     * Removes the card and tokens from a slot.
+     * @return - the word of the slot before the card was removed (with no card if the slot was empty).
+     */
+    private long remove(int slot) {
+        long word;
+        do {
+            word = slots.get(slot);
+            if ((word & CARD_MASK) == 0) return word;
+        } while (!slots.compareAndSet(slot, word, nextVersion(word)));
+        cardToSlot.set(card(word), 0);
+        return word;
+    }
 
     /**
      * Places a player token on a grid slot.
      * @param player - the player the token belongs to.
      * @param slot   - the slot on which to place the token.
+     * @return       - the version of the slot the token was placed at (see getVersion), or -1 if no token was placed
+     *                 (i.e. there is no card in the slot, or it already has a token of the player).
      */
-    public synchronized void placeToken(int player, int slot) {
-        synchronized (objectSlot[slot]){
-            System.out.println("Daniel place token the slot- " +slot+" is locked by "+ player);
-            if(slotToCard[slot]!=null){
-            env.ui.placeToken(player, slot);
-        // TODO implement
-    }
-    }
-    System.out.println("Daniel place token the slot- " +slot+" is umlocked  by "+ player);
-}
+    public int placeToken(int player, int slot) {
+        long word;
+        do {
+            word = slots.get(slot);
+            if ((word & CARD_MASK) == 0 || (tokens(word) & (1 << player)) != 0) return -1;
+        } while (!slots.compareAndSet(slot, word, word | 1L << player));
+        env.ui.placeToken(player, slot);
 
-    public void addPlayerToTokenList(Player player, int slot){
-        tokenLists[slot].add(player);
+        // the card may have been removed (with its tokens) while the token was displayed
+        if (version(slots.get(slot)) != version(word)) env.ui.removeToken(player, slot);
+        return version(word);
     }
 
     /**
@@ -171,32 +642,25 @@ public class Table {
      * @param slot   - the slot from which to remove the token.
      * @return       - true iff a token was successfully removed.
      */
-    public synchronized boolean removeToken(int player, int slot) {
-        synchronized (objectSlot[slot]){
-            System.out.println("Daniel remove token the slot- " +slot+" is locked  by "+ player);
-            // TODO implement
-            Iterator<Player> it= tokenLists[slot].iterator();
-            while (it.hasNext()) {
-            Player removePlayer=it.next();
-            if(removePlayer.id==player){
-                tokenLists[slot].remove(removePlayer);
-                env.ui.removeToken(player, slot);
-                System.out.println("Daniel the slot- " +slot+" is umlocked");
-                return true;
-              }
-            }
-            System.out.println("Daniel remove token the slot- " +slot+" is umlocked by "+ player);
-            return false;
-        }
+    public boolean removeToken(int player, int slot) {
+        long word;
+        do {
+            word = slots.get(slot);
+            if ((tokens(word) & (1 << player)) == 0) return false;
+        } while (!slots.compareAndSet(slot, word, word & ~(1L << player)));
+        env.ui.removeToken(player, slot);
+        return true;
     }
 
-    public void removeAllTokens(){
-        for(int i=0; i<tokenLists.length; i++){
-            tokenLists[i].clear();
+    /**
+     * Removes the tokens of all the players from all the slots.
+     */
+    public void removeAllTokens() {
+        for (int slot = 0; slot < slots.length(); ++slot) {
+            long word;
+            do {
+                word = slots.get(slot);
+            } while (tokens(word) != 0 && !slots.compareAndSet(slot, word, word & ~TOKENS_MASK));
         }
     }
-
-
 }
-
-
@@ -0,0 +1,43 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConfigTest {
+
+    @Test
+    void maxTableSize_FitsTheKeysOfTheHumanPlayers() {
+
+        Properties properties = new Properties();
+        properties.put("Rows", "2");
+        properties.put("Columns", "2");
+        properties.put("PlayerKeys1", "81,87,69,82,65,83,68");
+        properties.put("PlayerKeys2", "85,73,79,80,74,75,76,59,77");
+        assertEquals(7, new Config(new UtilImplTest.MockLogger(), properties).maxTableSize);
+
+        properties.put("HumanPlayers", "1");
+        assertEquals(7, new Config(new UtilImplTest.MockLogger(), properties).maxTableSize);
+        properties.put("HumanPlayers", "0");
+        assertEquals(13, new Config(new UtilImplTest.MockLogger(), properties).maxTableSize);
+    }
+
+    @Test
+    void claimSize_AnySizeWithTheProjectiveRules() {
+
+        Properties properties = new Properties();
+        Config classic = new Config(new UtilImplTest.MockLogger(), properties);
+        assertEquals(3, classic.claimSize);
+        assertEquals(3, classic.maxClaimSize);
+
+        properties.put("Rules", "projective");
+        properties.put("SubmitKey2", "");
+        Config projective = new Config(new UtilImplTest.MockLogger(), properties);
+        assertEquals(0, projective.claimSize);
+        assertEquals(projective.maxTableSize, projective.maxClaimSize);
+        assertEquals(32, projective.submitKey(0));
+        assertEquals(0, projective.submitKey(1));
+    }
+}
@@ -0,0 +1,157 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectiveUtilImplTest {
+
+    Config config;
+    ProjectiveUtilImpl util;
+
+    @BeforeEach
+    void setUp() {
+
+        Properties properties = new Properties();
+        properties.put("Rules", "projective");
+        properties.put("FeatureCount", "6");
+        config = new Config(new UtilImplTest.MockLogger(), properties);
+        util = new ProjectiveUtilImpl(config);
+    }
+
+    private List<Integer> shuffledDeck(int size, long seed) {
+        List<Integer> deck = IntStream.range(0, config.deckSize).boxed().collect(Collectors.toList());
+        Collections.shuffle(deck, new Random(seed));
+        return new ArrayList<>(deck.subList(0, size));
+    }
+
+    private List<String> sorted(List<int[]> sets) {
+        return sets.stream().map(Arrays::toString).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    void config_ProjectiveDeck() {
+
+        assertEquals(63, config.deckSize);
+        assertEquals(2, config.featureSize);
+        // the players claim sets of any size, with as many tokens as there are cards on the table
+        assertEquals(0, config.claimSize);
+        assertEquals(config.maxTableSize, config.maxClaimSize);
+    }
+
+    @Test
+    void testSet_XorOfDots() {
+
+        // dots 1 ^ 2 ^ 3 == 0 and 1 ^ 2 ^ 4 ^ 7 == 0
+        assertTrue(util.testSet(new int[]{0, 1, 2}));
+        assertTrue(util.testSet(0, 1, 2));
+        assertTrue(util.testSet(new int[]{0, 1, 3, 6}));
+        assertFalse(util.testSet(new int[]{0, 1, 3}));
+        assertFalse(util.testSet(new int[]{0, 0, 1, 1}));
+        assertFalse(util.testSet(new int[]{}));
+    }
+
+    @Test
+    void findSets_MatchesAllSubsets() {
+
+        for (int size : new int[]{3, 7, 12}) {
+            List<Integer> deck = shuffledDeck(size, size);
+            List<int[]> expected = new ArrayList<>();
+            for (int subset = 1; subset < 1 << size; ++subset) {
+                int chosen = subset;
+                int[] cards = IntStream.range(0, size).filter(i -> (chosen & (1 << i)) != 0).map(deck::get).sorted().toArray();
+                if (util.testSet(cards)) expected.add(cards);
+            }
+
+            List<int[]> sets = util.findSets(deck, Integer.MAX_VALUE);
+            assertEquals(sorted(expected), sorted(sets));
+            assertEquals(sets.size(), util.countSets(deck.stream().mapToInt(Integer::intValue).toArray(), size));
+            assertEquals(sets.stream().map(Arrays::toString).collect(Collectors.toList()),
+                    util.streamSets(deck).map(Arrays::toString).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void findSets_OnlySetsOfTheClaimSize() {
+
+        Properties properties = new Properties();
+        properties.put("Rules", "projective");
+        properties.put("FeatureCount", "6");
+        properties.put("ClaimSize", "3");
+        Config claims = new Config(new UtilImplTest.MockLogger(), properties);
+        ProjectiveUtilImpl claimable = new ProjectiveUtilImpl(claims);
+        assertEquals(3, claims.maxClaimSize);
+        for (int size : new int[]{3, 7, 12}) {
+            List<Integer> deck = shuffledDeck(size, size);
+            List<int[]> expected = util.findSets(deck, Integer.MAX_VALUE);
+            expected.removeIf(set -> set.length != claims.claimSize);
+
+            List<int[]> sets = claimable.findSets(deck, Integer.MAX_VALUE);
+            assertEquals(sorted(expected), sorted(sets));
+            assertEquals(sets.size(), claimable.countSets(deck.stream().mapToInt(Integer::intValue).toArray(), size));
+            assertEquals(sorted(sets), sorted(claimable.streamSets(deck).collect(Collectors.toList())));
+        }
+
+        // dots 1 ^ 2 ^ 4 ^ 7 == 0 is a set, but not one that can be claimed with three tokens
+        int[] cards = {0, 1, 3, 6};
+        assertTrue(util.findSets(cards, 0, cards.length, SetSink.ANY));
+        assertFalse(claimable.findSets(cards, 0, cards.length, SetSink.ANY));
+        assertFalse(claimable.findSetsContaining(0, new int[]{1, 3, 6}, SetSink.ANY));
+        assertTrue(claimable.testSet(cards));
+    }
+
+    @Test
+    void findSets_AnySevenCardsHoldASet() {
+
+        int[] cards = shuffledDeck(7, 0).stream().mapToInt(Integer::intValue).toArray();
+        assertTrue(util.findSets(cards, 0, cards.length, SetSink.ANY));
+        assertFalse(util.findSets(new int[]{0, 1, 3}, 0, 3, SetSink.ANY));
+    }
+
+    @Test
+    void findSetsContaining_MatchesTheSetsWithTheCard() {
+
+        Properties properties = new Properties();
+        properties.put("Rules", "projective");
+        properties.put("FeatureCount", "6");
+        properties.put("ClaimSize", "4");
+        ProjectiveUtilImpl claimable = new ProjectiveUtilImpl(new Config(new UtilImplTest.MockLogger(), properties));
+        for (ProjectiveUtilImpl engine : new ProjectiveUtilImpl[]{util, claimable})
+            for (int size : new int[]{3, 8, 13}) {
+                List<Integer> deck = shuffledDeck(size, size);
+                int card = deck.get(0);
+                List<int[]> expected = engine.findSets(deck, Integer.MAX_VALUE);
+                expected.removeIf(set -> Arrays.stream(set).noneMatch(other -> other == card));
+
+                // with the card among the cards, and without it
+                int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+                for (int[] others : new int[][]{cards, Arrays.copyOfRange(cards, 1, size)}) {
+                    List<int[]> sets = new ArrayList<>();
+                    assertFalse(engine.findSetsContaining(card, others, UtilImpl.collectTo(sets, Integer.MAX_VALUE)));
+                    assertEquals(sorted(expected), sorted(sets));
+                }
+            }
+    }
+
+    @Test
+    void findSetsContaining_OnlySetsWithTheCard() {
+
+        // dots 1 ^ 2 ^ 3 == 0, and 3 ^ 4 ^ 7 == 0 without the card of 1 dot
+        int[] cards = {1, 2, 3, 6};
+        List<int[]> sets = new ArrayList<>();
+        assertFalse(util.findSetsContaining(0, cards, UtilImpl.collectTo(sets, Integer.MAX_VALUE)));
+        assertEquals(Arrays.asList("[0, 1, 2]", "[0, 1, 3, 6]"), sorted(sets));
+    }
+}
@@ -0,0 +1,364 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UtilImplTest {
+
+    Config config;
+    UtilImpl util;
+
+    @BeforeEach
+    void setUp() {
+
+        Properties properties = new Properties();
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        config = new Config(new MockLogger(), properties);
+        util = new UtilImpl(config);
+    }
+
+    private boolean isSetByDefinition(int[] cards) {
+        int[][] features = util.cardsToFeatures(cards);
+        for (int i = 0; i < config.featureCount; ++i) {
+            boolean allSame = true, allDifferent = true;
+            for (int j = 0; j < cards.length; ++j)
+                for (int k = j + 1; k < cards.length; ++k) {
+                    if (features[j][i] != features[k][i]) allSame = false;
+                    else allDifferent = false;
+                }
+            if (!allSame && !allDifferent) return false;
+        }
+        return true;
+    }
+
+    @Test
+    void testSet_MatchesDefinitionForAllTriples() {
+
+        for (int a = 0; a < config.deckSize; ++a)
+            for (int b = a + 1; b < config.deckSize; ++b)
+                for (int c = b + 1; c < config.deckSize; ++c) {
+                    int[] cards = {a, b, c};
+                    boolean expected = isSetByDefinition(cards);
+                    assertEquals(expected, util.testSet(cards));
+                    assertEquals(expected, util.testSet(a, b, c));
+                }
+    }
+
+    @Test
+    void testSet_SingleCardIsNotASet() {
+
+        assertFalse(util.testSet(new int[]{5}));
+    }
+
+    @Test
+    void testSet_KnownSet() {
+
+        // 0000, 1111, 2222 and 0120, 1201, 2012
+        assertTrue(util.testSet(new int[]{0, 40, 80}));
+        assertTrue(util.testSet(new int[]{15, 46, 59}));
+        assertFalse(util.testSet(new int[]{0, 40, 79}));
+    }
+
+    @Test
+    void testSets_MatchesTestSet() {
+
+        Random random = new Random(0);
+        int count = 150;
+        int[] triples = new int[3 * count];
+        for (int i = 0; i < count; ++i) {
+            triples[3 * i] = random.nextInt(config.deckSize);
+            triples[3 * i + 1] = random.nextInt(config.deckSize);
+            // make about a third of the triples legal sets
+            triples[3 * i + 2] = i % 3 == 0 ? util.thirdCard(triples[3 * i], triples[3 * i + 1]) : random.nextInt(config.deckSize);
+        }
+
+        long[] resultBits = new long[3];
+        util.testSets(triples, count, resultBits);
+        for (int i = 0; i < count; ++i)
+            assertEquals(util.testSet(triples[3 * i], triples[3 * i + 1], triples[3 * i + 2]), (resultBits[i / 64] & (1L << i)) != 0);
+        assertEquals(0, resultBits[2] >>> (count % 64));
+    }
+
+    @Test
+    void cardTables_SharedAndMatchArithmetic() {
+
+        CardTables tables = CardTables.of(config);
+        assertSame(tables, CardTables.of(new Config(new MockLogger(), new Properties())));
+
+        // decks with the same features but other rules get their own tables
+        Properties classic = new Properties();
+        classic.put("FeatureSize", "2");
+        Properties projective = new Properties();
+        projective.put("Rules", "projective");
+        projective.put("FeatureCount", "4");
+        assertEquals(16, CardTables.of(new Config(new MockLogger(), classic)).deckSize);
+        assertEquals(15, CardTables.of(new Config(new MockLogger(), projective)).deckSize);
+        int[] features = new int[config.featureCount];
+        for (int a = 0; a < config.deckSize; ++a) {
+            tables.featuresByArithmetic(a, features, 0);
+            assertArrayEquals(features, util.cardToFeatures(a));
+            for (int b = 0; b < config.deckSize; ++b)
+                assertEquals(tables.thirdCardByArithmetic(a, b), util.thirdCard(a, b));
+        }
+    }
+
+    private List<int[]> findSetsByDefinition(List<Integer> deck, int count) {
+        List<int[]> sets = new ArrayList<>();
+        findSetsByDefinition(deck, count, new int[config.featureSize], 0, 0, sets);
+        return sets;
+    }
+
+    private boolean findSetsByDefinition(List<Integer> deck, int count, int[] combination, int size, int from, List<int[]> sets) {
+        if (size == combination.length) {
+            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
+            if (isSetByDefinition(cards)) sets.add(cards);
+            return sets.size() >= count;
+        }
+        for (int i = from; i < deck.size(); ++i) {
+            combination[size] = i;
+            if (findSetsByDefinition(deck, count, combination, size + 1, i + 1, sets)) return true;
+        }
+        return false;
+    }
+
+    private List<Integer> shuffledDeck(int size, long seed) {
+        List<Integer> deck = IntStream.range(0, config.deckSize).boxed().collect(Collectors.toList());
+        Collections.shuffle(deck, new Random(seed));
+        return new ArrayList<>(deck.subList(0, size));
+    }
+
+    private void assertSameSets(List<int[]> expected, List<int[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i)
+            assertArrayEquals(expected.get(i), actual.get(i));
+    }
+
+    @Test
+    void findSets_MatchesDefinition() {
+
+        for (int size : new int[]{3, 12, 15, 30, config.deckSize}) {
+            List<Integer> deck = shuffledDeck(size, size);
+            assertSameSets(findSetsByDefinition(deck, Integer.MAX_VALUE), util.findSets(deck, Integer.MAX_VALUE));
+            assertSameSets(findSetsByDefinition(deck, 1), util.findSets(deck, 1));
+        }
+    }
+
+    @Test
+    void streamSets_MatchesFindSets() {
+
+        for (int size : new int[]{3, 12, 30, config.deckSize}) {
+            List<Integer> deck = shuffledDeck(size, size);
+            assertSameSets(util.findSets(deck, Integer.MAX_VALUE), util.streamSets(deck).collect(Collectors.toList()));
+            assertSameSets(util.findSets(deck, 2), util.streamSets(deck).limit(2).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void findSets_PrimitiveSinkMatchesFindSets() {
+
+        List<Integer> deck = shuffledDeck(30, 1);
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        List<int[]> sets = new ArrayList<>();
+        util.findSets(cards, 0, cards.length, set -> sets.add(set.clone()));
+        assertSameSets(util.findSets(deck, Integer.MAX_VALUE), sets);
+
+        assertTrue(util.findSets(cards, 0, cards.length, SetSink.ANY));
+        assertFalse(util.findSets(new int[]{0, 1, 3}, 0, 3, SetSink.ANY));
+    }
+
+    @Test
+    void findSets_LambdaSinkTakesSetsOfAnySize() {
+
+        Properties properties = new Properties();
+        properties.put("FeatureSize", "4");
+        properties.put("FeatureCount", "3");
+        config = new Config(new MockLogger(), properties);
+        util = new UtilImpl(config);
+
+        List<Integer> deck = shuffledDeck(20, 2);
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        List<int[]> sets = new ArrayList<>();
+        util.findSets(cards, 0, cards.length, set -> sets.add(set.clone()));
+        assertSameSets(util.findSets(deck, Integer.MAX_VALUE), sets);
+    }
+
+    private List<int[]> findSetsContainingByDefinition(int card, List<Integer> deck) {
+        List<Integer> cards = new ArrayList<>(deck);
+        if (!cards.contains(card)) cards.add(card);
+        List<int[]> sets = findSetsByDefinition(cards, Integer.MAX_VALUE);
+        sets.removeIf(set -> Arrays.stream(set).noneMatch(other -> other == card));
+        sets.sort((set, other) -> Arrays.toString(set).compareTo(Arrays.toString(other)));
+        return sets;
+    }
+
+    @Test
+    void findSetsContaining_MatchesFindSets() {
+
+        for (int[] sizes : new int[][]{{3, 4}, {4, 3}}) {
+            Properties properties = new Properties();
+            properties.put("FeatureSize", Integer.toString(sizes[0]));
+            properties.put("FeatureCount", Integer.toString(sizes[1]));
+            config = new Config(new MockLogger(), properties);
+            util = new UtilImpl(config);
+
+            List<Integer> deck = shuffledDeck(20, 3);
+            int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+            for (int card = 0; card < config.deckSize; ++card) {
+                List<int[]> sets = new ArrayList<>();
+                assertFalse(util.findSetsContaining(card, cards, UtilImpl.collectTo(sets, Integer.MAX_VALUE)));
+                sets.sort((set, other) -> Arrays.toString(set).compareTo(Arrays.toString(other)));
+                assertSameSets(findSetsContainingByDefinition(card, deck), sets);
+            }
+
+            // the bitmap is left clear after a stopped search
+            int card = cards[0];
+            if (util.findSetsContaining(card, cards, SetSink.ANY)) {
+                List<int[]> sets = new ArrayList<>();
+                util.findSetsContaining(card, cards, UtilImpl.collectTo(sets, Integer.MAX_VALUE));
+                assertEquals(findSetsContainingByDefinition(card, deck).size(), sets.size());
+            }
+        }
+    }
+
+    @Test
+    void countSets_MatchesFindSets() {
+
+        for (int size : new int[]{0, 3, 12, 30, config.deckSize}) {
+            List<Integer> deck = shuffledDeck(size, size);
+            int[] cards = Arrays.copyOf(deck.stream().mapToInt(Integer::intValue).toArray(), config.deckSize);
+            assertEquals(util.findSets(deck, Integer.MAX_VALUE).size(), util.countSets(cards, size));
+            assertEquals(util.countSets(cards, size), new UtilImpl(config, 1).countSets(cards, size));
+            assertEquals(util.countSets(cards, size), new ReferenceUtilImpl(config).countSets(cards, size));
+        }
+    }
+
+    @Test
+    void findSets_FullDeck() {
+
+        List<Integer> deck = shuffledDeck(config.deckSize, 0);
+        assertEquals(1080, util.findSets(deck, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    void findSets_ParallelMatchesSequential() {
+
+        Properties properties = new Properties();
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "5");
+        properties.put("ParallelThreshold", "0");
+        config = new Config(new MockLogger(), properties);
+        util = new UtilImpl(config);
+        properties.put("ParallelThreshold", "1");
+        UtilImpl parallel = new UtilImpl(new Config(new MockLogger(), properties));
+
+        for (int size : new int[]{12, 100, config.deckSize}) {
+            List<Integer> deck = shuffledDeck(size, size);
+            for (int count : new int[]{1, 7, 100, Integer.MAX_VALUE})
+                assertSameSets(util.findSets(deck, count), parallel.findSets(deck, count));
+        }
+    }
+
+    @Test
+    void findSets_LargerFeatureSizesMatchDefinition() {
+
+        for (int[] sizes : new int[][]{{4, 4}, {5, 3}}) {
+            Properties properties = new Properties();
+            properties.put("FeatureSize", Integer.toString(sizes[0]));
+            properties.put("FeatureCount", Integer.toString(sizes[1]));
+            properties.put("ParallelThreshold", "0");
+            config = new Config(new MockLogger(), properties);
+            util = new UtilImpl(config);
+            properties.put("ParallelThreshold", "1");
+            UtilImpl parallel = new UtilImpl(new Config(new MockLogger(), properties));
+
+            for (int size : new int[]{sizes[0], 16, 30}) {
+                List<Integer> deck = shuffledDeck(size, size);
+                List<int[]> expected = findSetsByDefinition(deck, Integer.MAX_VALUE);
+                assertSameSets(expected, util.findSets(deck, Integer.MAX_VALUE));
+                assertSameSets(expected, util.streamSets(deck).collect(Collectors.toList()));
+                assertSameSets(expected, parallel.findSets(deck, Integer.MAX_VALUE));
+                assertSameSets(findSetsByDefinition(deck, 2), parallel.findSets(deck, 2));
+                int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+                assertEquals(expected.size(), util.countSets(cards, size));
+                assertEquals(expected.size(), parallel.countSets(cards, size));
+            }
+
+            // per feature, the ordered values of a set are all the same (k ways) or all different (k! ways)
+            int k = config.featureSize, factorial = k == 4 ? 24 : 120;
+            long expected = ((long) Math.pow(k + factorial, config.featureCount) - config.deckSize) / factorial;
+            assertEquals(expected, util.findSets(shuffledDeck(config.deckSize, 0), Integer.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void findSets_ReferenceEngineMatches() {
+
+        ReferenceUtilImpl reference = new ReferenceUtilImpl(config);
+        for (int size : new int[]{3, 12, 30}) {
+            List<Integer> deck = shuffledDeck(size, size);
+            assertSameSets(util.findSets(deck, Integer.MAX_VALUE), reference.findSets(deck, Integer.MAX_VALUE));
+            assertSameSets(util.findSets(deck, 1), reference.streamSets(deck).limit(1).collect(Collectors.toList()));
+            assertSameSets(util.findSets(deck, 0), reference.findSets(deck, 0));
+        }
+        for (int a = 0; a < config.deckSize; a += 7)
+            for (int b = 0; b < config.deckSize; b += 5)
+                assertEquals(util.testSet(a, b, util.thirdCard(a, b)), reference.testSet(a, b, util.thirdCard(a, b)));
+    }
+
+    @Test
+    void shadow_LogsMismatchesAndReturnsEngineResults() {
+
+        Properties properties = new Properties();
+        properties.put("ShadowSampleRate", "1");
+        config = new Config(new MockLogger(), properties);
+        List<String> mismatches = new ArrayList<>();
+        Logger logger = new MockLogger() {
+            @Override
+            public void severe(String msg) {
+                mismatches.add(msg);
+            }
+        };
+
+        List<Integer> deck = shuffledDeck(30, 2);
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        Util checked = new UtilShadowDecorator(logger, config, util, new ReferenceUtilImpl(config));
+        assertSameSets(util.findSets(deck, Integer.MAX_VALUE), checked.findSets(deck, Integer.MAX_VALUE));
+        assertTrue(checked.findSets(cards, 0, cards.length, SetSink.ANY));
+        assertTrue(checked.testSet(0, 40, 80));
+        assertTrue(mismatches.isEmpty());
+
+        // a shadow that finds no sets at all
+        Util broken = new UtilShadowDecorator(logger, config, util, new ReferenceUtilImpl(config) {
+            @Override
+            public boolean testSet(int[] cards) {
+                return false;
+            }
+        });
+        assertTrue(broken.testSet(new int[]{0, 40, 80}));
+        assertSameSets(util.findSets(deck, 3), broken.findSets(deck, 3));
+        assertEquals(2, mismatches.size());
+    }
+
+    static class MockLogger extends Logger {
+        protected MockLogger() {
+            super("", null);
+        }
+    }
+}
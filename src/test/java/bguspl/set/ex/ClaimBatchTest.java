@@ -0,0 +1,132 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClaimBatchTest {
+
+    ClaimBatch batch;
+    ClaimQueue claims;
+
+    // the time the next claim is made at, and the slots of the tokens of every claim
+    long now;
+    Map<Integer, int[]> tokens;
+
+    // the players whose claims are stale or are a set, and the players checked by the referee
+    Set<Integer> stale, legal, checked;
+
+    ClaimBatch.Referee referee;
+
+    @BeforeEach
+    void setUp() {
+        batch = new ClaimBatch(4, 81);
+        claims = new ClaimQueue(4, () -> now);
+        tokens = new HashMap<>();
+        stale = new HashSet<>();
+        legal = new HashSet<>();
+        checked = new HashSet<>();
+        referee = new ClaimBatch.Referee() {
+            @Override
+            public boolean isStale(int player) {
+                checked.add(player);
+                return stale.contains(player);
+            }
+
+            @Override
+            public boolean isLegal(int player) {
+                return legal.contains(player);
+            }
+        };
+    }
+
+    private void claim(int player, long stamp, int... slots) {
+        now = stamp;
+        claims.offer(player);
+        tokens.put(player, slots);
+    }
+
+    // takes the claims into the batch and records their slots, like the dealer
+    private int drain() {
+        int count = batch.drain(claims);
+        for (int i = 0; i < count; ++i) {
+            for (int slot : tokens.get(batch.player(i)))
+                batch.addSlot(i, slot);
+            claims.release(batch.player(i));
+        }
+        return count;
+    }
+
+    private ClaimBatch.Verdict[] judgeAll() {
+        ClaimBatch.Verdict[] verdicts = new ClaimBatch.Verdict[drain()];
+        for (int i = 0; i < verdicts.length; ++i)
+            verdicts[i] = batch.judge(i, referee);
+        return verdicts;
+    }
+
+    @Test
+    void drain_ClaimsMadeAtTheSameTimeByPlayerId() {
+
+        claim(3, 100);
+        claim(1, 100);
+        claim(2, 50);
+
+        assertEquals(3, drain());
+        assertEquals(2, batch.player(0));
+        assertEquals(1, batch.player(1));
+        assertEquals(3, batch.player(2));
+
+        // System.nanoTime may overflow between the claims
+        claim(0, Long.MIN_VALUE);
+        claim(1, Long.MAX_VALUE);
+        assertEquals(2, drain());
+        assertEquals(1, batch.player(0));
+        assertEquals(0, batch.player(1));
+    }
+
+    @Test
+    void judge_LaterOverlappingClaimIsReleasedWithoutPenalty() {
+
+        claim(0, 20, 3, 4, 70);
+        claim(1, 10, 1, 2, 70);
+        claim(2, 30, 5, 6, 7);
+        legal.addAll(Arrays.asList(0, 1, 2));
+
+        ClaimBatch.Verdict[] verdicts = judgeAll();
+        assertEquals(1, batch.player(0));
+        assertEquals(ClaimBatch.Verdict.POINT, verdicts[0]);
+        assertEquals(ClaimBatch.Verdict.RELEASE, verdicts[1]);
+        assertEquals(ClaimBatch.Verdict.POINT, verdicts[2]);
+        // the claim that lost the race is not checked against the table at all
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), checked);
+    }
+
+    @Test
+    void judge_StaleClaimInTheBatchRemovesNoCards() {
+
+        claim(0, 10, 1, 2, 3);
+        claim(1, 20, 3, 4, 5);
+        claim(2, 30, 5, 6, 7);
+        claim(3, 40, 8, 9, 10);
+        stale.add(0);
+        legal.add(1);
+
+        ClaimBatch.Verdict[] verdicts = judgeAll();
+        assertEquals(ClaimBatch.Verdict.RELEASE, verdicts[0]);
+        assertEquals(ClaimBatch.Verdict.POINT, verdicts[1]);
+        assertEquals(ClaimBatch.Verdict.RELEASE, verdicts[2]);
+        assertEquals(ClaimBatch.Verdict.PENALTY, verdicts[3]);
+
+        // the next batch starts with no slots removed
+        claim(2, 50, 5, 6, 7);
+        legal.add(2);
+        assertEquals(ClaimBatch.Verdict.POINT, judgeAll()[0]);
+    }
+}
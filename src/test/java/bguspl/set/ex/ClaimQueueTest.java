@@ -0,0 +1,141 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaimQueueTest {
+
+    ClaimQueue claims;
+    int[] players;
+    long[] stamps;
+
+    @BeforeEach
+    void setUp() {
+        claims = new ClaimQueue(4);
+        players = new int[4];
+        stamps = new long[4];
+    }
+
+    @Test
+    void drain_ClaimsInTheOrderTheyWereMade() {
+
+        assertTrue(claims.isEmpty());
+        assertTrue(claims.offer(2));
+        assertTrue(claims.offer(0));
+        assertFalse(claims.offer(2));
+        assertFalse(claims.isEmpty());
+
+        assertEquals(2, claims.drain(players, stamps));
+        assertEquals(2, players[0]);
+        assertEquals(0, players[1]);
+        assertEquals(0, claims.drain(players, stamps));
+        assertTrue(claims.isEmpty());
+        assertTrue(claims.contains(2));
+
+        claims.release(2);
+        assertFalse(claims.contains(2));
+        assertTrue(claims.offer(2));
+    }
+
+    @Test
+    void remove_OnlyWithdrawsQueuedClaims() {
+
+        claims.offer(1);
+        assertEquals(1, claims.drain(players, stamps));
+        claims.offer(3);
+
+        assertFalse(claims.remove(1));
+        assertTrue(claims.contains(1));
+        assertTrue(claims.remove(3));
+        assertFalse(claims.contains(3));
+
+        // the withdrawn claim is skipped, but a new claim of the same player is not
+        claims.offer(3);
+        assertEquals(1, claims.drain(players, stamps));
+        assertEquals(3, players[0]);
+
+        claims.clear();
+        assertFalse(claims.contains(1));
+        assertFalse(claims.contains(3));
+    }
+
+    @Test
+    void drain_TakesAllQueuedClaimsWithTheirTimes() {
+
+        claims.offer(3);
+        claims.offer(1);
+        claims.offer(2);
+        claims.remove(1);
+
+        assertEquals(2, claims.drain(players, stamps));
+        assertEquals(3, players[0]);
+        assertEquals(2, players[1]);
+        assertTrue(stamps[1] - stamps[0] >= 0);
+        assertTrue(claims.contains(3));
+        assertEquals(0, claims.drain(players, stamps));
+    }
+
+    @Test
+    void offer_ConcurrentPlayersGetEveryVerdict() throws Exception {
+
+        int players = 32, rounds = 500;
+        claims = new ClaimQueue(players);
+        AtomicIntegerArray checked = new AtomicIntegerArray(players);
+        ExecutorService pool = Executors.newFixedThreadPool(players);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < players; ++i) {
+                int player = i;
+                futures.add(pool.submit(() -> {
+                    for (int round = 0; round < rounds; ++round) {
+                        assertTrue(claims.offer(player));
+                        claims.awaitVerdict(player);
+                    }
+                    return null;
+                }));
+            }
+
+            int[] drained = new int[players];
+            long[] drainedStamps = new long[players];
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                for (int verdicts = 0; verdicts < players * rounds; ) {
+                    int count = claims.drain(drained, drainedStamps);
+                    if (count == 0) {
+                        // a player that failed makes no more claims, so its failure ends the test
+                        for (Future<?> future : futures)
+                            if (future.isDone()) future.get();
+                        Thread.yield();
+                        continue;
+                    }
+                    for (int i = 0; i < count; ++i) {
+                        assertTrue(claims.contains(drained[i]));
+                        checked.incrementAndGet(drained[i]);
+                        claims.release(drained[i]);
+                    }
+                    verdicts += count;
+                }
+                for (Future<?> future : futures)
+                    future.get();
+            });
+
+            assertEquals(0, claims.drain(drained, drainedStamps));
+            for (int player = 0; player < players; ++player)
+                assertEquals(rounds, checked.get(player));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DeckTest {
+
+    @Test
+    void draw_EveryCardOnce() {
+
+        Deck deck = new Deck(81, new Random(0));
+        int[] drawn = new int[100];
+        assertEquals(81, deck.draw(drawn, 100));
+        assertEquals(0, deck.size());
+
+        int[] sorted = Arrays.copyOf(drawn, 81);
+        Arrays.sort(sorted);
+        for (int card = 0; card < 81; ++card)
+            assertEquals(card, sorted[card]);
+    }
+
+    @Test
+    void draw_SameSeedSameCards() {
+
+        int[] drawn = new int[12], again = new int[12];
+        new Deck(81, new Random(42)).draw(drawn, 12);
+        new Deck(81, new Random(42)).draw(again, 12);
+        assertArrayEquals(drawn, again);
+    }
+
+    @Test
+    void add_ReturnsTheCardToTheDeck() {
+
+        Deck deck = new Deck(3, new Random(0));
+        int first = deck.draw();
+        int second = deck.draw();
+        deck.add(first);
+        assertEquals(2, deck.size());
+
+        int[] cards = Arrays.copyOf(deck.cards(), deck.size());
+        Arrays.sort(cards);
+        int[] expected = {first, 3 - first - second};
+        Arrays.sort(expected);
+        assertArrayEquals(expected, cards);
+    }
+}
@@ -2,27 +2,45 @@ package bguspl.set.ex;
 
 import bguspl.set.Config;
 import bguspl.set.Env;
+import bguspl.set.SetSink;
 import bguspl.set.UserInterface;
 import bguspl.set.Util;
+import bguspl.set.UtilImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TableTest {
 
     Table table;
-    private Integer[] slotToCard;
-    private Integer[] cardToSlot;
+    private Config config;
+    private Properties properties;
 
     @BeforeEach
     void setUp() {
 
-        Properties properties = new Properties();
+        properties = new Properties();
         properties.put("Rows", "2");
         properties.put("Columns", "2");
         properties.put("FeatureSize", "3");
@@ -31,35 +49,39 @@ class TableTest {
         properties.put("PlayerKeys1", "81,87,69,82");
         properties.put("PlayerKeys2", "85,73,79,80");
         MockLogger logger = new MockLogger();
-        Config config = new Config(logger, properties);
-        slotToCard = new Integer[config.tableSize];
-        cardToSlot = new Integer[config.deckSize];
+        config = new Config(logger, properties);
 
         Env env = new Env(logger, config, new MockUserInterface(), new MockUtil());
-        table = new Table(env, slotToCard, cardToSlot);
+        table = new Table(env);
+    }
+
+    /**
+     * Replaces the table with one without human players, since the table grows only as far as the human players have
+     * keys for (4 slots here).
+     */
+    private void setUpComputerPlayersOnly(Util util) {
+        properties.put("HumanPlayers", "0");
+        config = new Config(new MockLogger(), properties);
+        table = new Table(new Env(new MockLogger(), config, new MockUserInterface(), util));
     }
 
     private int fillSomeSlots() {
-        slotToCard[1] = 3;
-        slotToCard[2] = 5;
-        cardToSlot[3] = 1;
-        cardToSlot[5] = 2;
+        table.placeCard(3, 1);
+        table.placeCard(5, 2);
 
         return 2;
     }
 
     private void fillAllSlots() {
-        for (int i = 0; i < slotToCard.length; ++i) {
-            slotToCard[i] = i;
-            cardToSlot[i] = i;
-        }
+        for (int i = 0; i < config.tableSize; ++i)
+            table.placeCard(i, i);
     }
 
     private void placeSomeCardsAndAssert() throws InterruptedException {
         table.placeCard(8, 2);
 
-        assertEquals(8, (int) slotToCard[2]);
-        assertEquals(2, (int) cardToSlot[8]);
+        assertEquals(8, (int) table.getCard(2));
+        assertEquals(2, (int) table.getSlot(8));
     }
 
     @Test
@@ -79,7 +101,312 @@ class TableTest {
     void countCards_AllSlotsAreFilled() {
 
         fillAllSlots();
-        assertEquals(slotToCard.length, table.countCards());
+        assertEquals(config.tableSize, table.countCards());
+    }
+
+    @Test
+    void startingCards_MatchBothWays() {
+
+        Integer[] slotToCard = new Integer[config.tableSize];
+        Integer[] cardToSlot = new Integer[config.deckSize];
+        slotToCard[3] = 7;
+        cardToSlot[7] = 3;
+        table = new Table(new Env(new MockLogger(), config, new MockUserInterface(), new MockUtil()), slotToCard, cardToSlot);
+
+        assertEquals(1, table.countCards());
+        assertEquals(7, (int) table.getCard(3));
+        assertEquals(3, (int) table.getSlot(7));
+        assertNull(table.getCard(0));
+        assertNull(table.getSlot(0));
+    }
+
+    @Test
+    void placeToken_OnlyOnCards() {
+
+        assertEquals(-1, table.placeToken(0, 1));
+        fillSomeSlots();
+        assertEquals(table.getVersion(1), table.placeToken(0, 1));
+        assertEquals(-1, table.placeToken(0, 1));
+        assertEquals(table.getVersion(1), table.placeToken(1, 1));
+        assertTrue(table.hasToken(0, 1));
+        assertTrue(table.removeToken(0, 1));
+        assertFalse(table.removeToken(0, 1));
+        assertFalse(table.hasToken(0, 1));
+        assertTrue(table.hasToken(1, 1));
+    }
+
+    @Test
+    void removeCard_ReturnsAndClearsTokens() {
+
+        fillSomeSlots();
+        table.placeToken(0, 2);
+        table.placeToken(1, 2);
+        assertEquals(0b11, table.removeCard(2));
+        assertFalse(table.hasToken(0, 2));
+        assertNull(table.getCard(2));
+        assertNull(table.getSlot(5));
+        assertEquals(0, table.removeCard(2));
+    }
+
+    @Test
+    void getVersion_ChangesWithEveryCard() {
+
+        int version = table.getVersion(2);
+        table.placeCard(5, 2);
+        int placed = table.placeToken(0, 2);
+        assertNotEquals(version, placed);
+
+        // the same card placed back in the slot is a new card for the claims on it
+        table.removeCard(2);
+        table.placeCard(5, 2);
+        assertNotEquals(placed, table.getVersion(2));
+        assertFalse(table.hasToken(0, 2));
+    }
+
+    @Test
+    void getVersion_WrapsToZeroAfterTheLargestInt() {
+
+        // a word with all the tokens, the largest card and the largest version
+        assertEquals(Integer.MAX_VALUE, Table.version(-1L));
+        long next = Table.nextVersion(-1L);
+        assertEquals(0, Table.version(next));
+        assertEquals(1, Table.version(Table.nextVersion(next)));
+        assertEquals(0, next);
+    }
+
+    @Test
+    void placeToken_EveryPlayerUpToTheMaximum() {
+
+        Properties properties = new Properties();
+        properties.put("HumanPlayers", "0");
+        properties.put("ComputerPlayers", Integer.toString(Table.MAX_PLAYERS));
+        config = new Config(new MockLogger(), properties);
+        table = new Table(new Env(new MockLogger(), config, new MockUserInterface(), new MockUtil()));
+        table.placeCard(0, 0);
+        for (int player = 0; player < Table.MAX_PLAYERS; ++player)
+            assertEquals(table.getVersion(0), table.placeToken(player, 0));
+        assertEquals((1 << Table.MAX_PLAYERS) - 1, table.removeCard(0));
+
+        properties.put("ComputerPlayers", Integer.toString(Table.MAX_PLAYERS + 1));
+        Env env = new Env(new MockLogger(), new Config(new MockLogger(), properties), new MockUserInterface(), new MockUtil());
+        assertThrows(IllegalArgumentException.class, () -> new Table(env));
+    }
+
+    @Test
+    void snapshot_KeepsTheTableAtThatMoment() {
+
+        fillSomeSlots();
+        table.placeToken(1, 2);
+        Table.Snapshot snapshot = table.snapshot();
+        table.removeCard(1);
+        table.removeToken(1, 2);
+        table.placeCard(9, 0);
+
+        assertEquals(2, snapshot.countCards());
+        assertEquals(3, (int) snapshot.getCard(1));
+        assertNull(snapshot.getCard(0));
+        assertEquals(2, snapshot.getSlot(5));
+        assertTrue(snapshot.hasToken(1, 2));
+        int[] cards = new int[snapshot.size()];
+        assertEquals(2, snapshot.getCards(cards));
+        assertEquals(3, cards[0]);
+        assertEquals(5, cards[1]);
+    }
+
+    @Test
+    void placeCards_ClearReturnsThemInSlotOrder() {
+
+        table.placeCards(new int[]{7, 4, 9}, new int[]{3, 0, 2});
+        table.placeToken(1, 3);
+        assertEquals(3, table.countCards());
+        assertEquals(4, (int) table.getCard(0));
+        assertEquals(3, (int) table.getSlot(7));
+
+        assertArrayEquals(new int[]{4, 9, 7}, table.clear());
+        assertEquals(0, table.countCards());
+        assertNull(table.getSlot(7));
+        assertFalse(table.hasToken(1, 3));
+        assertArrayEquals(new int[0], table.clear());
+    }
+
+    @Test
+    void grow_AddsFeatureSizeSlotsUpToTheMaximum() {
+
+        setUpComputerPlayersOnly(new MockUtil());
+        fillAllSlots();
+        assertEquals(config.tableSize, table.size());
+        while (table.grow())
+            assertTrue(table.size() <= config.maxTableSize);
+        assertEquals(config.tableSize + 3 * config.featureSize, table.size());
+
+        // a card in the first extra slots keeps them in use
+        table.placeCard(20, config.tableSize + 1);
+        assertEquals(config.tableSize + config.featureSize, table.shrink());
+
+        table.placeToken(0, config.tableSize + 1);
+        table.removeCard(1);
+        assertEquals(0b1, table.moveCard(config.tableSize + 1, 1));
+        assertEquals(20, (int) table.getCard(1));
+        assertEquals(1, (int) table.getSlot(20));
+        assertFalse(table.hasToken(0, 1));
+        assertEquals(config.tableSize, table.shrink());
+
+        table.grow();
+        table.clear();
+        assertEquals(config.tableSize, table.size());
+    }
+
+    @Test
+    void countSets_FollowsEveryCardChange() {
+
+        Util util = new UtilImpl(config);
+        setUpComputerPlayersOnly(util);
+        while (table.grow()) ;
+        Random random = new Random(0);
+        for (int round = 0; round < 500; ++round) {
+            int slot = random.nextInt(table.size());
+            switch (random.nextInt(4)) {
+                case 0:
+                    int card = random.nextInt(config.deckSize);
+                    if (table.getSlot(card) == null) table.placeCard(card, slot);
+                    break;
+                case 1:
+                    table.removeCard(slot);
+                    break;
+                case 2:
+                    int to = random.nextInt(table.size());
+                    if (table.getCard(to) == null) table.moveCard(slot, to);
+                    break;
+                default:
+                    if (round % 50 == 0) table.clear();
+                    while (table.grow()) ;
+            }
+
+            Table.Snapshot snapshot = table.snapshot();
+            int[] cards = new int[snapshot.size()];
+            int n = snapshot.getCards(cards);
+            assertEquals(n, table.countCards());
+            assertEquals(util.countSets(cards, n), table.countSets());
+            assertEquals(table.countSets(), snapshot.countSets());
+        }
+    }
+
+    private static void assertHintsMatch(Util util, Table table) {
+        Table.Snapshot snapshot = table.snapshot();
+        int[] cards = new int[snapshot.size()];
+        int n = snapshot.getCards(cards);
+        Set<String> sets = new HashSet<>();
+        util.findSets(cards, 0, n, set -> {
+            int[] sorted = set.clone();
+            Arrays.sort(sorted);
+            sets.add(Arrays.toString(sorted));
+            return true;
+        });
+        assertEquals(sets, table.hintSets());
+    }
+
+    @Test
+    void hintSets_FollowEveryCardChange() {
+
+        Properties properties = new Properties();
+        properties.put("Rows", "3");
+        properties.put("Columns", "4");
+        properties.put("HumanPlayers", "0");
+        properties.put("ComputerPlayers", "2");
+        properties.put("Hints", "True");
+        config = new Config(new MockLogger(), properties);
+        Util util = new UtilImpl(config);
+        table = new Table(new Env(new MockLogger(), config, new MockUserInterface(), util));
+        assertHintsMatch(util, table);
+
+        Random random = new Random(0);
+        int[] cards = new int[config.tableSize], slots = new int[config.tableSize];
+        boolean hadSets = false;
+        for (int round = 0; round < 200; ++round) {
+            int slot = random.nextInt(table.size());
+            switch (random.nextInt(4)) {
+                case 0:
+                    int count = 0;
+                    for (int to = 0; to < table.size(); ++to)
+                        if (table.getCard(to) == null && count < cards.length) {
+                            int card = random.nextInt(config.deckSize);
+                            if (table.getSlot(card) != null) continue;
+                            boolean drawn = false;
+                            for (int i = 0; i < count; ++i)
+                                drawn |= cards[i] == card;
+                            if (drawn) continue;
+                            cards[count] = card;
+                            slots[count++] = to;
+                        }
+                    table.placeCards(Arrays.copyOf(cards, count), Arrays.copyOf(slots, count));
+                    break;
+                case 1:
+                    table.removeCard(slot);
+                    break;
+                case 2:
+                    int to = random.nextInt(table.size());
+                    if (table.getCard(to) == null) table.moveCard(slot, to);
+                    break;
+                default:
+                    table.clear();
+            }
+            assertHintsMatch(util, table);
+            hadSets |= !table.hintSets().isEmpty();
+        }
+        assertTrue(hadSets);
+    }
+
+    @Test
+    void snapshot_NeverSeesHalfADeal() throws InterruptedException {
+
+        int[] cards = new int[config.tableSize], slots = new int[config.tableSize];
+        for (int i = 0; i < slots.length; ++i) {
+            cards[i] = i;
+            slots[i] = i;
+        }
+        Thread dealer = new Thread(() -> {
+            for (int round = 0; round < 2000; ++round) {
+                table.placeCards(cards, slots);
+                table.clear();
+            }
+        });
+        dealer.start();
+        while (dealer.isAlive()) {
+            int count = table.snapshot().countCards();
+            assertTrue(count == 0 || count == config.tableSize);
+        }
+        dealer.join();
+    }
+
+    @Test
+    void placeToken_ConcurrentPlayersKeepAllTokens() throws Exception {
+
+        fillAllSlots();
+        ExecutorService pool = Executors.newFixedThreadPool(config.players);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < config.players; ++i) {
+                int player = i;
+                futures.add(pool.submit(() -> {
+                    for (int round = 0; round < 1000; ++round)
+                        for (int slot = 0; slot < config.tableSize; ++slot) {
+                            assertNotEquals(-1, table.placeToken(player, slot));
+                            assertTrue(table.removeToken(player, slot));
+                        }
+                    for (int slot = 0; slot < config.tableSize; ++slot)
+                        table.placeToken(player, slot);
+                }));
+            }
+            // rethrows the failures of the players in the test thread
+            for (Future<?> future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int player = 0; player < config.players; ++player)
+            for (int slot = 0; slot < config.tableSize; ++slot)
+                assertTrue(table.hasToken(player, slot));
     }
 
     @Test
@@ -103,6 +430,10 @@ class TableTest {
         @Override
         public void removeCard(int slot) {}
         @Override
+        public void placeCards(int[] cards, int[] slots) {}
+        @Override
+        public void removeCards(int[] slots) {}
+        @Override
         public void setCountdown(long millies, boolean warn) {}
         @Override
         public void setElapsed(long millies) {}
@@ -128,21 +459,59 @@ class TableTest {
             return new int[0];
         }
 
+        @Override
+        public int[] cardToFeatures(int card, int[] features) {
+            return features;
+        }
+
         @Override
         public int[][] cardsToFeatures(int[] cards) {
             return new int[0][];
         }
 
+        @Override
+        public int[][] cardsToFeatures(int[] cards, int[][] features) {
+            return features;
+        }
+
         @Override
         public boolean testSet(int[] cards) {
             return false;
         }
 
+        @Override
+        public boolean testSet(int first, int second, int third) {
+            return false;
+        }
+
+        @Override
+        public void testSets(int[] triples, int count, long[] resultBits) {}
+
         @Override
         public List<int[]> findSets(List<Integer> deck, int count) {
             return null;
         }
 
+        @Override
+        public Stream<int[]> streamSets(List<Integer> deck) {
+            return Stream.empty();
+        }
+
+        @Override
+        public boolean findSets(int[] cards, int from, int to, SetSink sink) {
+            return false;
+        }
+
+        @Override
+        public boolean findSetsContaining(int card, int[] cards, SetSink sink) {
+            return false;
+        }
+
+        @Override
+        public long countSets(int[] cards, int len) {
+            return 0;
+        }
+
         @Override
         public void spin() {}
     }